@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import com.aletheiaware.bc.BC;
+import com.aletheiaware.bc.Cache;
+import com.aletheiaware.bc.MemoryCache;
+import com.aletheiaware.bc.Network;
+import com.aletheiaware.bc.PoWChannel;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.test.runner.AndroidJUnit4;
+
+/**
+ * Instrumented test for ChannelSync, which will execute on an Android device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChannelSyncInstrumentedTest {
+
+    private static final long WINDOW = 500;
+    private static final long PULL_TIME = 200;
+    private static final int CALLERS = 8;
+
+    private final AtomicInteger pulls = new AtomicInteger();
+    private final Cache cache = new MemoryCache();
+    private long window;
+    private ChannelSync.Puller puller;
+
+    @Before
+    public void setUp() {
+        window = ChannelSync.window;
+        puller = ChannelSync.puller;
+        ChannelSync.clear();
+        ChannelSync.window = WINDOW;
+        ChannelSync.puller = new ChannelSync.Puller() {
+            @Override
+            public void pull(PoWChannel channel, Cache cache, Network network) {
+                pulls.incrementAndGet();
+                try {
+                    // Hold the pull open so concurrent callers overlap it
+                    Thread.sleep(PULL_TIME);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        ChannelSync.window = window;
+        ChannelSync.puller = puller;
+        ChannelSync.clear();
+    }
+
+    private static PoWChannel channel(String name) {
+        return new PoWChannel(name, BC.THRESHOLD_STANDARD);
+    }
+
+    @Test
+    public void concurrentCallersShareOnePull() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(CALLERS);
+        for (int i = 0; i < CALLERS; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        ChannelSync.sync(channel("Concurrent"), cache, null);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        Assert.assertEquals(1, pulls.get());
+    }
+
+    @Test
+    public void pullsOncePerWindow() throws Exception {
+        ChannelSync.sync(channel("Window"), cache, null);
+        ChannelSync.sync(channel("Window"), cache, null);
+        Assert.assertEquals(1, pulls.get());
+        Thread.sleep(WINDOW + 100);
+        ChannelSync.sync(channel("Window"), cache, null);
+        ChannelSync.sync(channel("Window"), cache, null);
+        Assert.assertEquals(2, pulls.get());
+    }
+
+    @Test
+    public void channelsPullIndependently() {
+        ChannelSync.sync(channel("Alpha"), cache, null);
+        ChannelSync.sync(channel("Beta"), cache, null);
+        ChannelSync.sync(channel("Alpha"), cache, null);
+        Assert.assertEquals(2, pulls.get());
+    }
+
+    @Test
+    public void refreshPullsWithinWindow() {
+        ChannelSync.sync(channel("Refresh"), cache, null);
+        ChannelSync.refresh(channel("Refresh"), cache, null);
+        Assert.assertEquals(2, pulls.get());
+    }
+
+    @Test
+    public void syncReturnsRegisteredInstance() {
+        PoWChannel first = ChannelSync.sync(channel("Registry"), cache, null);
+        PoWChannel second = ChannelSync.sync(channel("Registry"), cache, null);
+        Assert.assertSame(first, second);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedChannel() {
+        PoWChannel first = ChannelSync.get(channel("Channel0"), cache);
+        PoWChannel recent = ChannelSync.get(channel("Channel1"), cache);
+        for (int i = 2; i <= ChannelSync.MAX_CHANNELS; i++) {
+            ChannelSync.get(channel("Channel" + i), cache);
+            // Keep Channel1 most recently used
+            ChannelSync.get(channel("Channel1"), cache);
+        }
+        Assert.assertNotSame(first, ChannelSync.get(channel("Channel0"), cache));
+        Assert.assertSame(recent, ChannelSync.get(channel("Channel1"), cache));
+    }
+}
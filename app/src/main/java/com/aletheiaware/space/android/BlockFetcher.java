@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.util.Log;
+
+import com.aletheiaware.bc.BCProto.Block;
+import com.aletheiaware.bc.BCProto.Reference;
+import com.aletheiaware.bc.Cache;
+import com.aletheiaware.bc.Crypto;
+import com.aletheiaware.bc.Network;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.google.protobuf.ByteString;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Fetches the blocks containing a set of records, reading the cache first.
+ *
+ * When at least CONCURRENT_THRESHOLD blocks are missing and the network is pooled, they are
+ * requested concurrently as parallel single block requests, otherwise one at a time. Fetched blocks
+ * are written to the cache in bulk.
+ */
+public class BlockFetcher {
+
+    public static final int CONCURRENT_THRESHOLD = 2;
+
+    private BlockFetcher() {}
+
+    @WorkerThread
+    public static Block get(Cache cache, Network network, Reference reference) {
+        return fetch(cache, network, Collections.singletonList(reference)).get(reference);
+    }
+
+    /**
+     * Returns the block containing each record, omitting those which could not be fetched.
+     */
+    @WorkerThread
+    public static Map<Reference, Block> fetch(Cache cache, Network network, Collection<Reference> references) {
+        Map<Reference, Block> blocks = new HashMap<>();
+        List<Reference> missing = new ArrayList<>();
+        synchronized (cache) {
+            for (Reference reference : references) {
+                Block block = cache.getBlockContainingRecord(reference.getChannelName(), reference.getRecordHash());
+                if (block == null) {
+                    missing.add(reference);
+                } else {
+                    blocks.put(reference, block);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return blocks;
+        }
+        Map<Reference, Block> fetched;
+        if (missing.size() >= CONCURRENT_THRESHOLD && network instanceof PooledNetwork) {
+            Log.d(SpaceUtils.TAG, "Fetching " + missing.size() + " blocks concurrently");
+            fetched = ((PooledNetwork) network).getBlocks(missing);
+        } else {
+            fetched = new HashMap<>();
+            for (Reference reference : missing) {
+                Log.d(SpaceUtils.TAG, "Fetching: " + reference);
+                Block block = network.getBlock(reference);
+                if (block != null) {
+                    fetched.put(reference, block);
+                }
+            }
+        }
+        Map<ByteString, Block> hashed = new HashMap<>();
+        for (Block block : fetched.values()) {
+            try {
+                hashed.put(ByteString.copyFrom(Crypto.getProtobufHash(block)), block);
+            } catch (NoSuchAlgorithmException e) {
+                /* Ignored */
+                e.printStackTrace();
+            }
+        }
+        synchronized (cache) {
+            for (Map.Entry<ByteString, Block> e : hashed.entrySet()) {
+                cache.putBlock(e.getKey(), e.getValue());
+            }
+        }
+        blocks.putAll(fetched);
+        return blocks;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.util.Log;
+
+import com.aletheiaware.bc.BCProto.Block;
+import com.aletheiaware.bc.BCProto.Reference;
+import com.aletheiaware.bc.Cache;
+import com.aletheiaware.bc.Network;
+import com.aletheiaware.bc.TCPNetwork;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.google.protobuf.ByteString;
+
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Casts mined blocks to peers in the background.
+ *
+ * Casts run concurrently with bounded parallelism and transient failures are retried with the
+ * backoff of RetryPolicy.CAST. TCPNetwork.cast does not report connection or write failures, so
+ * each cast is confirmed by requesting the block back from the peer, and a cast the peer did not
+ * receive is retried. A cast still waiting to run is replaced by a later block on the
+ * same channel to the same host, since casting the newer head also brings the peer up to date
+ * with earlier blocks.
+ */
+public class BroadcastQueue {
+
+    private static final int PARALLELISM = 4;
+
+    private static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(PARALLELISM);
+    private static final Map<String, Cast> pending = new HashMap<>();
+
+    private BroadcastQueue() {}
+
+    public static void cast(String host, String channel, Cache cache, Network network, ByteString hash, Block block) {
+        String key = host + "/" + channel;
+        synchronized (pending) {
+            Cast cast = pending.get(key);
+            if (cast != null) {
+                Log.d(SpaceUtils.TAG, "Coalescing cast of " + channel + " to " + host);
+                cast.hash = hash;
+                cast.block = block;
+                return;
+            }
+            cast = new Cast(key, host, channel, cache, network, hash, block);
+            pending.put(key, cast);
+            executor.execute(cast);
+        }
+    }
+
+    private static class Cast implements Runnable {
+
+        final String key;
+        final String host;
+        final String channel;
+        final Cache cache;
+        final Network network;
+        ByteString hash;
+        Block block;
+        int attempts = 0;
+
+        Cast(String key, String host, String channel, Cache cache, Network network, ByteString hash, Block block) {
+            this.key = key;
+            this.host = host;
+            this.channel = channel;
+            this.cache = cache;
+            this.network = network;
+            this.hash = hash;
+            this.block = block;
+        }
+
+        @Override
+        public void run() {
+            ByteString h;
+            Block b;
+            synchronized (pending) {
+                // Later blocks queue a new cast once this one has started
+                pending.remove(key);
+                h = hash;
+                b = block;
+            }
+            attempts++;
+            Exception failure;
+            try {
+                InetAddress address = HostResolver.resolve(host);
+                TCPNetwork.cast(address, channel, cache, network, h, b);
+                Reference reference = Reference.newBuilder()
+                        .setChannelName(channel)
+                        .setBlockHash(h)
+                        .build();
+                if (new TCPNetwork(new InetAddress[]{address}).getBlock(reference) != null) {
+                    return;
+                }
+                failure = new SocketException("Block not received by " + host);
+            } catch (Exception e) {
+                failure = e;
+            }
+            Log.e(SpaceUtils.TAG, "Failed to cast " + channel + " to " + host + " (attempt " + attempts + ")", failure);
+            if (attempts < RetryPolicy.CAST.getMaxAttempts() && RetryPolicy.isTransient(failure)) {
+                synchronized (pending) {
+                    if (pending.containsKey(key)) {
+                        // Superseded by a later block
+                        return;
+                    }
+                    pending.put(key, this);
+                    executor.schedule(this, RetryPolicy.CAST.getDelay(attempts), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+}
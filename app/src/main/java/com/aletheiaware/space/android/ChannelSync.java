@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.util.Log;
+
+import com.aletheiaware.bc.Cache;
+import com.aletheiaware.bc.Network;
+import com.aletheiaware.bc.PoWChannel;
+import com.aletheiaware.bc.utils.ChannelUtils;
+import com.aletheiaware.common.utils.CommonUtils;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.google.protobuf.ByteString;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Process-wide registry of channels, brought up to date with the network before they are read.
+ *
+ * The registry holds one instance of each of the MAX_CHANNELS most recently used channels, with its
+ * head loaded from the cache when the channel is first used or used again after being evicted,
+ * since each file has its own preview and tag channels. Each channel's head is checked against the network at most once per
+ * WINDOW, and concurrent callers for the same channel share a single check. Blocks still missing
+ * from the cache are fetched lazily when the channel is read. Subscribers are told when a pull
+ * moves a channel's head, so they only re-read a channel once it has changed.
+ */
+public class ChannelSync {
+
+    public interface HeadListener {
+        @WorkerThread
+        void onHead(String channel, ByteString head);
+    }
+
+    interface Puller {
+        @WorkerThread
+        void pull(PoWChannel channel, Cache cache, Network network) throws NoSuchAlgorithmException;
+    }
+
+    private static final long WINDOW = 30 * 1000;// 30 seconds
+
+    @VisibleForTesting
+    static final int MAX_CHANNELS = 256;
+    @VisibleForTesting
+    static long window = WINDOW;
+    @VisibleForTesting
+    static Puller puller = new Puller() {
+        @Override
+        public void pull(PoWChannel channel, Cache cache, Network network) throws NoSuchAlgorithmException {
+            ChannelUtils.pull(channel, cache, network);
+        }
+    };
+
+    private static final Map<String, PoWChannel> channels = new LinkedHashMap<String, PoWChannel>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PoWChannel> eldest) {
+            return size() > MAX_CHANNELS;
+        }
+    };
+    private static final Map<String, Set<HeadListener>> listeners = new HashMap<>();
+    private static final Map<String, Long> synced = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_CHANNELS;
+        }
+    };
+    private static final Map<String, CountDownLatch> pulling = new HashMap<>();
+
+    private ChannelSync() {}
+
+    /**
+     * Returns the registered instance of the channel, registering and loading its head from the
+     * cache if it is new.
+     */
+    @WorkerThread
+    public static PoWChannel get(PoWChannel channel, Cache cache) {
+        synchronized (channels) {
+            PoWChannel c = channels.get(channel.getName());
+            if (c == null) {
+                c = channel;
+                ChannelUtils.loadHead(c, cache);
+                channels.put(c.getName(), c);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Returns the registered instance of the channel once it has been pulled from the network if
+     * needed.
+     */
+    @WorkerThread
+    public static PoWChannel sync(PoWChannel channel, Cache cache, Network network) {
+        PoWChannel c = get(channel, cache);
+        pull(c, cache, network);
+        return c;
+    }
+
+    /**
+     * Pulls the channel from the network even if it was pulled within WINDOW.
+     */
+    @WorkerThread
+    public static PoWChannel refresh(PoWChannel channel, Cache cache, Network network) {
+        synchronized (synced) {
+            synced.remove(channel.getName());
+        }
+        return sync(channel, cache, network);
+    }
+
+    /**
+     * Registers the listener to be told when the channel's head moves. Listeners are weakly
+     * referenced so subscribers need not unsubscribe when they are discarded.
+     */
+    public static void subscribe(String channel, HeadListener listener) {
+        synchronized (listeners) {
+            Set<HeadListener> set = listeners.get(channel);
+            if (set == null) {
+                set = Collections.newSetFromMap(new WeakHashMap<HeadListener, Boolean>());
+                listeners.put(channel, set);
+            }
+            set.add(listener);
+        }
+    }
+
+    public static void unsubscribe(String channel, HeadListener listener) {
+        synchronized (listeners) {
+            Set<HeadListener> set = listeners.get(channel);
+            if (set != null) {
+                set.remove(listener);
+                if (set.isEmpty()) {
+                    listeners.remove(channel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pulls the channel from the network unless it was pulled within WINDOW, or waits for the pull
+     * already in progress.
+     */
+    @WorkerThread
+    public static void pull(PoWChannel channel, Cache cache, Network network) {
+        String name = channel.getName();
+        CountDownLatch latch;
+        boolean owner = false;
+        synchronized (synced) {
+            Long time = synced.get(name);
+            if (time != null && System.currentTimeMillis() - time < window) {
+                // Pick up the head written by the last pull
+                ChannelUtils.loadHead(channel, cache);
+                return;
+            }
+            latch = pulling.get(name);
+            if (latch == null) {
+                latch = new CountDownLatch(1);
+                pulling.put(name, latch);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            Log.d(SpaceUtils.TAG, "Joining pull of " + name);
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ChannelUtils.loadHead(channel, cache);
+            return;
+        }
+        try {
+            ByteString before = channel.getHead();
+            puller.pull(channel, cache, network);
+            synchronized (synced) {
+                synced.put(name, System.currentTimeMillis());
+            }
+            ByteString after = channel.getHead();
+            if (after != null && !after.equals(before)) {
+                notifyHead(name, after);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            /* Ignored */
+            e.printStackTrace();
+        } finally {
+            synchronized (synced) {
+                pulling.remove(name);
+            }
+            latch.countDown();
+        }
+    }
+
+    private static void notifyHead(String channel, ByteString head) {
+        Log.d(SpaceUtils.TAG, channel + " head moved to " + new String(CommonUtils.encodeBase64URL(head.toByteArray())));
+        List<HeadListener> ls;
+        synchronized (listeners) {
+            Set<HeadListener> set = listeners.get(channel);
+            if (set == null) {
+                return;
+            }
+            if (set.isEmpty()) {
+                // Every subscriber has been discarded
+                listeners.remove(channel);
+                return;
+            }
+            ls = new ArrayList<>(set);
+        }
+        for (HeadListener l : ls) {
+            l.onHead(channel, head);
+        }
+    }
+
+    /**
+     * Drops every channel, forcing the next access to reload from the cache and pull from the
+     * network.
+     */
+    public static void clear() {
+        synchronized (channels) {
+            channels.clear();
+        }
+        synchronized (synced) {
+            synced.clear();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.ProxyFileDescriptorCallback;
+import android.os.storage.StorageManager;
+import android.provider.OpenableColumns;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.Log;
+
+import com.aletheiaware.common.utils.CommonUtils;
+import com.aletheiaware.space.SpaceProto.Meta;
+import com.aletheiaware.space.utils.SpaceUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+/**
+ * Serves documents by decrypting only the chunks covering each read, so viewers can start and seek
+ * without the whole document being downloaded first.
+ *
+ * Chunks are mapped to offsets assuming every chunk but the last has the size of the first.
+ */
+public class DocumentProvider extends ContentProvider {
+
+    private static final int CACHED_CHUNKS = 3;
+
+    private static final Map<String, MetaLoader> loaders = new HashMap<>();
+
+    public static boolean isSupported(MetaLoader loader) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && loader.isStreamable();
+    }
+
+    public static Uri register(Context context, MetaLoader loader) {
+        String name = new String(CommonUtils.encodeBase64URL(loader.getMetaRecordHash().toByteArray()));
+        synchronized (loaders) {
+            loaders.put(name, loader);
+        }
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(context.getString(R.string.document_provider_authority))
+                .appendPath(name)
+                .build();
+    }
+
+    public static void unregister(MetaLoader loader) {
+        String name = new String(CommonUtils.encodeBase64URL(loader.getMetaRecordHash().toByteArray()));
+        synchronized (loaders) {
+            if (loaders.get(name) == loader) {
+                loaders.remove(name);
+            }
+        }
+    }
+
+    private static MetaLoader getLoader(Uri uri) throws FileNotFoundException {
+        MetaLoader loader;
+        synchronized (loaders) {
+            loader = loaders.get(uri.getLastPathSegment());
+        }
+        if (loader == null || loader.getMeta() == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        return loader;
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        Meta meta;
+        try {
+            meta = getLoader(uri).getMeta();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        if (projection == null) {
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = meta.getName();
+            } else if (OpenableColumns.SIZE.equals(projection[i])) {
+                row[i] = meta.getSize();
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        try {
+            return getLoader(uri).getMeta().getType();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            throw new FileNotFoundException("Streaming requires API " + Build.VERSION_CODES.O);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Read only: " + uri);
+        }
+        MetaLoader loader = getLoader(uri);
+        Context context = getContext();
+        if (context == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        StorageManager manager = context.getSystemService(StorageManager.class);
+        HandlerThread thread = new HandlerThread("DocumentProvider");
+        thread.start();
+        try {
+            return manager.openProxyFileDescriptor(ParcelFileDescriptor.MODE_READ_ONLY, new ChunkCallback(loader, thread), new Handler(thread.getLooper()));
+        } catch (IOException e) {
+            thread.quitSafely();
+            throw new FileNotFoundException(e.getMessage());
+        }
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Read only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read only");
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static class ChunkCallback extends ProxyFileDescriptorCallback {
+
+        private final MetaLoader loader;
+        private final HandlerThread thread;
+        private final long size;
+        private final int count;
+        private long chunkSize = 0;
+        private final Map<Integer, byte[]> chunks = new LinkedHashMap<Integer, byte[]>(CACHED_CHUNKS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Entry<Integer, byte[]> eldest) {
+                return size() > CACHED_CHUNKS;
+            }
+        };
+
+        ChunkCallback(MetaLoader loader, HandlerThread thread) {
+            this.loader = loader;
+            this.thread = thread;
+            size = loader.getMeta().getSize();
+            count = loader.getChunkCount();
+        }
+
+        @Override
+        public long onGetSize() {
+            return size;
+        }
+
+        @Override
+        public int onRead(long offset, int length, byte[] data) throws ErrnoException {
+            int read = 0;
+            try {
+                if (chunkSize == 0) {
+                    chunkSize = getChunk(0).length;
+                }
+                while (read < length && offset + read < size) {
+                    long position = offset + read;
+                    int index = (int) (position / chunkSize);
+                    if (index >= count) {
+                        break;
+                    }
+                    byte[] chunk = getChunk(index);
+                    int start = (int) (position - index * chunkSize);
+                    if (start >= chunk.length) {
+                        break;
+                    }
+                    int n = Math.min(length - read, chunk.length - start);
+                    System.arraycopy(chunk, start, data, read, n);
+                    read += n;
+                }
+            } catch (IOException e) {
+                Log.e(SpaceUtils.TAG, "Failed to read chunk", e);
+                throw new ErrnoException("onRead", OsConstants.EIO);
+            }
+            return read;
+        }
+
+        private byte[] getChunk(int index) throws IOException {
+            byte[] chunk = chunks.get(index);
+            if (chunk == null) {
+                Log.d(SpaceUtils.TAG, "Streaming chunk " + index + " of " + count);
+                chunk = loader.readChunk(index);
+                if (index < count - 1 && chunkSize != 0 && chunk.length != chunkSize) {
+                    throw new IOException("Unexpected chunk size " + chunk.length);
+                }
+                chunks.put(index, chunk);
+            }
+            return chunk;
+        }
+
+        @Override
+        public void onRelease() {
+            chunks.clear();
+            thread.quitSafely();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.util.Log;
+
+import com.aletheiaware.bc.BCProto.Reference;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.google.protobuf.ByteString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Chunk-granular store for a downloaded document.
+ *
+ * The document is written to a data file, and each chunk is recorded in a journal alongside it once
+ * written, as: record hash length, record hash, offset, length, digest length, digest. A completion
+ * entry (zero hash length, data file modification time) marks a fully written document.
+ *
+ * Opening the store verifies journaled chunks against the data file and drops everything from the
+ * first mismatch, so an interrupted download resumes from the first missing chunk and a damaged
+ * file is never trusted.
+ */
+public class DownloadStore {
+
+    private static final String DIGEST = "SHA-256";
+
+    private final File file;
+    private final File journal;
+    private final List<Reference> references;
+    private final List<Long> offsets = new ArrayList<>();
+    private boolean complete = false;
+    private RandomAccessFile data;
+    private DataOutputStream out;
+
+    public DownloadStore(File file, List<Reference> references) {
+        this.file = file;
+        this.journal = new File(file.getParentFile(), file.getName() + ".chunks");
+        this.references = references;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getChunkCount() {
+        return references.size();
+    }
+
+    /**
+     * Returns the index of the first chunk not yet written and verified.
+     */
+    public synchronized int getWrittenCount() {
+        return offsets.size() - 1;
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    @WorkerThread
+    public synchronized void open() throws IOException {
+        offsets.clear();
+        offsets.add(0L);
+        complete = false;
+        if (!file.exists() || !journal.exists()) {
+            reset();
+            return;
+        }
+        long valid = 0;
+        long modified = -1;
+        List<byte[]> digests = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+            while (true) {
+                int hashLength = in.readInt();
+                if (hashLength == 0) {
+                    modified = in.readLong();
+                    valid += 4 + 8;
+                    break;
+                }
+                byte[] hash = new byte[hashLength];
+                in.readFully(hash);
+                long offset = in.readLong();
+                int length = in.readInt();
+                byte[] digest = new byte[in.readInt()];
+                in.readFully(digest);
+                int index = offsets.size() - 1;
+                if (index >= references.size()
+                        || !ByteString.copyFrom(hash).equals(references.get(index).getRecordHash())
+                        || offset != offsets.get(index)) {
+                    break;
+                }
+                valid += 4 + hash.length + 8 + 4 + 4 + digest.length;
+                offsets.add(offset + length);
+                digests.add(digest);
+            }
+        } catch (EOFException e) {
+            /* Ignored - end of journal */
+        }
+        int count = offsets.size() - 1;
+        long length = offsets.get(count);
+        if (count == references.size() && modified == file.lastModified() && file.length() == length) {
+            // Unchanged since it was completed
+            complete = true;
+            return;
+        }
+        if (modified != -1) {
+            // Completion entry is stale, verify chunks again
+            valid -= 4 + 8;
+        }
+        int verified = verify(digests);
+        if (verified < count) {
+            Log.w(SpaceUtils.TAG, "Download verified " + verified + " of " + count + " chunks");
+            reset();
+            for (int i = 0; i < verified; i++) {
+                append(references.get(i).getRecordHash(), offsets.get(i), (int) (offsets.get(i + 1) - offsets.get(i)), digests.get(i));
+            }
+            flush();
+            offsets.subList(verified + 1, offsets.size()).clear();
+        } else if (valid < journal.length()) {
+            // Drop partially written or stale entry
+            try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+        if (file.length() > offsets.get(verified)) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(offsets.get(verified));
+            }
+        }
+        complete = verified == references.size();
+        if (complete) {
+            markComplete();
+        }
+    }
+
+    private int verify(List<byte[]> digests) throws IOException {
+        int verified = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (byte[] digest : digests) {
+                long offset = offsets.get(verified);
+                int length = (int) (offsets.get(verified + 1) - offset);
+                if (offset + length > raf.length()) {
+                    break;
+                }
+                byte[] buffer = new byte[length];
+                raf.seek(offset);
+                raf.readFully(buffer);
+                if (!Arrays.equals(digest, digest(buffer))) {
+                    break;
+                }
+                verified++;
+            }
+        }
+        return verified;
+    }
+
+    /**
+     * Writes the chunk at the given index, which must be the first missing chunk.
+     */
+    @WorkerThread
+    public synchronized void write(int index, byte[] payload) throws IOException {
+        if (index != offsets.size() - 1) {
+            throw new IOException("Expected chunk " + (offsets.size() - 1) + " but got " + index);
+        }
+        long offset = offsets.get(index);
+        if (data == null) {
+            data = new RandomAccessFile(file, "rw");
+        }
+        data.seek(offset);
+        data.write(payload);
+        // Data must be durable before the journal claims it
+        data.getFD().sync();
+        append(references.get(index).getRecordHash(), offset, payload.length, digest(payload));
+        flush();
+        offsets.add(offset + payload.length);
+        if (offsets.size() - 1 == references.size()) {
+            complete = true;
+            markComplete();
+        }
+    }
+
+    @WorkerThread
+    public synchronized void close() {
+        try {
+            flush();
+            if (data != null) {
+                data.close();
+                data = null;
+            }
+        } catch (IOException e) {
+            /* Ignored */
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized void delete() {
+        close();
+        offsets.clear();
+        offsets.add(0L);
+        complete = false;
+        if (file.exists() && !file.delete()) {
+            Log.e(SpaceUtils.TAG, "Error deleting " + file);
+        }
+        if (journal.exists() && !journal.delete()) {
+            Log.e(SpaceUtils.TAG, "Error deleting " + journal);
+        }
+    }
+
+    private void reset() throws IOException {
+        close();
+        try (FileOutputStream o = new FileOutputStream(journal)) {
+            o.getFD().sync();
+        }
+    }
+
+    private void markComplete() throws IOException {
+        if (data != null) {
+            data.close();
+            data = null;
+        }
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journal, true)));
+        }
+        out.writeInt(0);
+        out.writeLong(file.lastModified());
+        flush();
+    }
+
+    private void append(ByteString recordHash, long offset, int length, byte[] digest) throws IOException {
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journal, true)));
+        }
+        byte[] hash = recordHash.toByteArray();
+        out.writeInt(hash.length);
+        out.write(hash);
+        out.writeLong(offset);
+        out.writeInt(length);
+        out.writeInt(digest.length);
+        out.write(digest);
+    }
+
+    private void flush() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private static byte[] digest(byte[] data) throws IOException {
+        try {
+            return MessageDigest.getInstance(DIGEST).digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
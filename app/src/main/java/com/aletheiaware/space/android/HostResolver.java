@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.util.Log;
+
+import com.aletheiaware.space.utils.SpaceUtils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Process-wide host name resolver.
+ *
+ * Lookups run in parallel with a per-host timeout, concurrent lookups of the same host share one
+ * request, and results are cached with a TTL. When a lookup fails or times out, the last known
+ * address is used if there is one.
+ */
+public class HostResolver {
+
+    private static final long TIMEOUT = 5 * 1000;// 5 seconds
+    private static final long TTL = 5 * 60 * 1000;// 5 minutes
+    private static final long NEGATIVE_TTL = 30 * 1000;// 30 seconds
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool();
+    private static final Map<String, Entry> entries = new HashMap<>();
+    private static final Map<String, Future<InetAddress>> lookups = new HashMap<>();
+
+    private HostResolver() {}
+
+    @WorkerThread
+    public static InetAddress resolve(String host) throws UnknownHostException {
+        Future<InetAddress> lookup = lookup(host);
+        if (lookup == null) {
+            return get(host);
+        }
+        return await(host, lookup, TIMEOUT);
+    }
+
+    /**
+     * Resolves all hosts in parallel within a single TIMEOUT, omitting any which could not be
+     * resolved.
+     */
+    @WorkerThread
+    public static InetAddress[] resolveAll(Collection<String> hosts) {
+        Map<String, Future<InetAddress>> pending = new HashMap<>();
+        for (String host : hosts) {
+            pending.put(host, lookup(host));
+        }
+        Set<InetAddress> addresses = new LinkedHashSet<>();
+        // Lookups run concurrently, so share one deadline rather than waiting TIMEOUT for each
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        for (Map.Entry<String, Future<InetAddress>> e : pending.entrySet()) {
+            try {
+                if (e.getValue() == null) {
+                    addresses.add(get(e.getKey()));
+                } else {
+                    addresses.add(await(e.getKey(), e.getValue(), Math.max(0, deadline - System.currentTimeMillis())));
+                }
+            } catch (UnknownHostException ex) {
+                /* Ignored */
+                ex.printStackTrace();
+            }
+        }
+        return addresses.toArray(new InetAddress[0]);
+    }
+
+    public static void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the in-flight lookup for the host, starting one if needed, or null if the cached
+     * entry is fresh.
+     */
+    private static Future<InetAddress> lookup(final String host) {
+        synchronized (entries) {
+            Entry entry = entries.get(host);
+            if (entry != null && entry.isFresh()) {
+                return null;
+            }
+            Future<InetAddress> lookup = lookups.get(host);
+            if (lookup == null) {
+                lookup = executor.submit(new Callable<InetAddress>() {
+                    @Override
+                    public InetAddress call() throws Exception {
+                        try {
+                            InetAddress address = InetAddress.getByName(host);
+                            put(host, address);
+                            return address;
+                        } catch (UnknownHostException e) {
+                            put(host, null);
+                            throw e;
+                        } finally {
+                            synchronized (entries) {
+                                lookups.remove(host);
+                            }
+                        }
+                    }
+                });
+                lookups.put(host, lookup);
+            }
+            return lookup;
+        }
+    }
+
+    private static InetAddress await(String host, Future<InetAddress> lookup, long timeout) throws UnknownHostException {
+        try {
+            return lookup.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(SpaceUtils.TAG, "Failed to resolve " + host, e.getCause());
+        } catch (TimeoutException e) {
+            // Lookup continues in the background and will update the cache
+            Log.w(SpaceUtils.TAG, "Timed out resolving " + host);
+        }
+        return getStale(host);
+    }
+
+    private static InetAddress get(String host) throws UnknownHostException {
+        synchronized (entries) {
+            Entry entry = entries.get(host);
+            if (entry != null && entry.address != null) {
+                return entry.address;
+            }
+        }
+        throw new UnknownHostException(host);
+    }
+
+    private static InetAddress getStale(String host) throws UnknownHostException {
+        synchronized (entries) {
+            Entry entry = entries.get(host);
+            if (entry != null && entry.last != null) {
+                return entry.last;
+            }
+        }
+        throw new UnknownHostException(host);
+    }
+
+    private static void put(String host, InetAddress address) {
+        synchronized (entries) {
+            Entry previous = entries.get(host);
+            InetAddress last = address;
+            if (last == null && previous != null) {
+                last = previous.last;
+            }
+            entries.put(host, new Entry(address, last, System.currentTimeMillis() + (address == null ? NEGATIVE_TTL : TTL)));
+        }
+    }
+
+    private static class Entry {
+        final InetAddress address;// Null if the last lookup failed
+        final InetAddress last;// Last successfully resolved address
+        final long expiry;
+
+        Entry(InetAddress address, InetAddress last, long expiry) {
+            this.address = address;
+            this.last = last;
+            this.expiry = expiry;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() < expiry;
+        }
+    }
+}
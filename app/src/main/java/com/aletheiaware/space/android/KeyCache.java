@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.util.Log;
+
+import com.aletheiaware.bc.Crypto;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.google.protobuf.ByteString;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Memory-only LRU cache of RSA-decrypted secret keys, keyed by the encrypted key bytes.
+ *
+ * Decrypted keys are zeroed when evicted or cleared, and the cache must be cleared when the
+ * account changes.
+ */
+public class KeyCache {
+
+    private static final int CAPACITY = 256;
+
+    private static final Map<ByteString, byte[]> keys = new LinkedHashMap<ByteString, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteString, byte[]> eldest) {
+            if (size() > CAPACITY) {
+                Arrays.fill(eldest.getValue(), (byte) 0);
+                return true;
+            }
+            return false;
+        }
+    };
+    private static long hits = 0;
+    private static long misses = 0;
+
+    private KeyCache() {}
+
+    /**
+     * Returns a copy of the decrypted key so callers cannot corrupt the cached value.
+     */
+    public static byte[] decryptRSA(PrivateKey privateKey, byte[] encrypted) throws BadPaddingException, IllegalBlockSizeException, InvalidAlgorithmParameterException, InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException {
+        ByteString k = ByteString.copyFrom(encrypted);
+        synchronized (keys) {
+            byte[] decrypted = keys.get(k);
+            if (decrypted != null) {
+                hits++;
+                return decrypted.clone();
+            }
+            misses++;
+        }
+        byte[] decrypted = Crypto.decryptRSA(privateKey, encrypted);
+        synchronized (keys) {
+            keys.put(k, decrypted.clone());
+        }
+        return decrypted;
+    }
+
+    public static void clear() {
+        synchronized (keys) {
+            Log.d(SpaceUtils.TAG, "KeyCache Hits: " + hits + " Misses: " + misses + " Hit Rate: " + getHitRate());
+            for (byte[] key : keys.values()) {
+                Arrays.fill(key, (byte) 0);
+            }
+            keys.clear();
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    public static long getHits() {
+        synchronized (keys) {
+            return hits;
+        }
+    }
+
+    public static long getMisses() {
+        synchronized (keys) {
+            return misses;
+        }
+    }
+
+    public static double getHitRate() {
+        synchronized (keys) {
+            long total = hits + misses;
+            if (total == 0) {
+                return 0;
+            }
+            return (double) hits / total;
+        }
+    }
+}
@@ -18,7 +18,7 @@ package com.aletheiaware.space.android;
 
 import android.app.Activity;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -34,90 +34,290 @@ import com.aletheiaware.space.android.utils.SpaceAndroidUtils;
 import com.aletheiaware.space.utils.SpaceUtils;
 import com.google.protobuf.ByteString;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
+/**
+ * Lists the account's Metas.
+ *
+ * Only the keys of each Meta are held for the whole list, the Metas themselves are read from the
+ * MetaIndex a page at a time around the rows being displayed, and only the most recent pages are
+ * kept in memory.
+ */
 public abstract class MetaAdapter extends RecyclerView.Adapter<MetaAdapter.ViewHolder> implements PreviewCallback {
 
+    private static final int PAGE_SIZE = 200;
+    private static final int CACHE_SIZE = 2 * PAGE_SIZE;
+
+    private static final ExecutorService pager = Executors.newSingleThreadExecutor();
+
     private final Activity activity;
     private final LayoutInflater inflater;
     private final String alias;
-    private final Map<ByteString, Meta> metas = new HashMap<>();
-    private final Map<ByteString, Preview> previews = new HashMap<>();
+    private final MetaIndex index;
+    private final LruCache<ByteString, Meta> metas = new LruCache<>(CACHE_SIZE);
+    // Metas not yet written to the index
+    private final Map<ByteString, Meta> unindexed = new HashMap<>();
+    private final Map<ByteString, Long> offsets = new HashMap<>();
+    private final Set<ByteString> paging = new HashSet<>();
+    private final PreviewCache previewCache;
+    private final LruCache<ByteString, String> texts = new LruCache<>(CACHE_SIZE);
     private final Map<ByteString, Long> timestamps = new HashMap<>();
     private final Set<ByteString> shared = new HashSet<>();
+    // Rows paged in or previewed since the last frame
+    private final Set<ByteString> changed = new HashSet<>();
+    private final Runnable changeUpdate = new Runnable() {
+        @Override
+        public void run() {
+            updateChanged();
+        }
+    };
     private final List<ByteString> sorted = new ArrayList<>();
+    private final SnapshotDiffer<ByteString> differ;
+    private boolean chronological;
     private ByteString metaHead;
     private ByteString shareHead;
 
-    public MetaAdapter(Activity activity, String alias) {
+    public MetaAdapter(Activity activity, String alias, MetaIndex index) {
         this.activity = activity;
         inflater = activity.getLayoutInflater();
         this.alias = alias;
+        this.index = index;
+        previewCache = PreviewCache.get(activity);
+        chronological = isChronological();
+        differ = new SnapshotDiffer<>(this, new SnapshotDiffer.Source<ByteString>() {
+            @Override
+            public List<ByteString> getSnapshot() {
+                synchronized (MetaAdapter.this) {
+                    return new ArrayList<>(sorted);
+                }
+            }
+        });
+        setHasStableIds(true);
+    }
+
+    public PreviewCache getPreviewCache() {
+        return previewCache;
     }
 
     public String getAlias() {
         return alias;
     }
 
-    public synchronized void addMeta(ByteString recordHash, long timestamp, Meta meta, boolean shared) {
+    /**
+     * Adds a Meta read from the network, which is kept in memory until setOffset is called once it
+     * has been written to the index.
+     */
+    public synchronized boolean addMeta(ByteString recordHash, long timestamp, Meta meta, boolean shared) {
         if (meta == null) {
             throw new NullPointerException();
         }
-        if (metas.put(recordHash, meta) == null) {
-            sorted.add(recordHash);// Only add if new
-            timestamps.put(recordHash, timestamp);
-            if (shared) {
-                this.shared.add(recordHash);
+        if (add(recordHash, timestamp, shared)) {
+            unindexed.put(recordHash, meta);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a Meta held in the index at the given offset.
+     */
+    public synchronized boolean addIndexed(ByteString recordHash, long timestamp, boolean shared, long offset) {
+        if (add(recordHash, timestamp, shared)) {
+            offsets.put(recordHash, offset);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean add(ByteString recordHash, long timestamp, boolean shared) {
+        if (timestamps.containsKey(recordHash)) {
+            return false;
+        }
+        timestamps.put(recordHash, timestamp);
+        if (shared) {
+            this.shared.add(recordHash);
+        }
+        // Only add if new
+        sorted.add(findInsertion(timestamp), recordHash);
+        differ.invalidate();
+        return true;
+    }
+
+    /**
+     * Returns true if the Meta was added but has not yet been written to the index.
+     */
+    public synchronized boolean isUnindexed(ByteString recordHash) {
+        return unindexed.containsKey(recordHash);
+    }
+
+    public synchronized void setOffset(ByteString recordHash, long offset) {
+        offsets.put(recordHash, offset);
+        Meta meta = unindexed.remove(recordHash);
+        if (meta != null) {
+            metas.put(recordHash, meta);
+        }
+    }
+
+    @Nullable
+    private Meta getMeta(ByteString hash) {
+        Meta meta = metas.get(hash);
+        if (meta == null) {
+            synchronized (this) {
+                meta = unindexed.get(hash);
             }
-            sort();
         }
+        return meta;
+    }
+
+    @Nullable
+    private synchronized Long getTimestamp(ByteString hash) {
+        return timestamps.get(hash);
+    }
+
+    /**
+     * Reads the page of Metas around the position from the index.
+     */
+    @UiThread
+    private void page(int position) {
+        List<ByteString> list = differ.getList();
+        int start = Math.max(0, position - PAGE_SIZE / 2);
+        int end = Math.min(list.size(), start + PAGE_SIZE);
+        final List<ByteString> hashes = new ArrayList<>();
+        final List<Long> positions = new ArrayList<>();
+        synchronized (this) {
+            for (int i = start; i < end; i++) {
+                ByteString hash = list.get(i);
+                Long offset = offsets.get(hash);
+                if (offset != null && metas.get(hash) == null && paging.add(hash)) {
+                    hashes.add(hash);
+                    positions.add(offset);
+                }
+            }
+        }
+        if (hashes.isEmpty()) {
+            return;
+        }
+        final long[] locations = new long[positions.size()];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = positions.get(i);
+        }
+        pager.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Meta[] page = index.read(locations);
+                    for (int i = 0; i < page.length; i++) {
+                        metas.put(hashes.get(i), page[i]);
+                    }
+                    synchronized (changed) {
+                        changed.addAll(hashes);
+                    }
+                    UpdateCoalescer.post(changeUpdate);
+                } catch (IOException e) {
+                    /* Ignored */
+                    e.printStackTrace();
+                } finally {
+                    synchronized (MetaAdapter.this) {
+                        paging.removeAll(hashes);
+                    }
+                }
+            }
+        });
     }
 
     @Override
     public void onPreview(ByteString hash, Preview preview) {
         if (preview != null) {
-            previews.put(hash, preview);
-            activity.runOnUiThread(new Runnable() {
-                public void run() {
-                    notifyDataSetChanged();
-                }
-            });
+            if (SpaceUtils.isText(preview.getType())) {
+                texts.put(hash, preview.getData().toStringUtf8());
+            }
+            // Image previews are decoded into the PreviewCache by the loader
+            synchronized (changed) {
+                changed.add(hash);
+            }
+            UpdateCoalescer.post(changeUpdate);
         }
     }
 
-    private synchronized void sort() {
-        String value = SpaceAndroidUtils.getSortPreference(activity, alias);
-        boolean chronological = "1".equals(value);
-        SpaceUtils.sort(sorted, timestamps, chronological);
-        activity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                notifyDataSetChanged();
+    @UiThread
+    private void updateChanged() {
+        Set<ByteString> hashes;
+        synchronized (changed) {
+            hashes = new HashSet<>(changed);
+            changed.clear();
+        }
+        List<ByteString> list = differ.getList();
+        for (int i = 0; i < list.size() && !hashes.isEmpty(); i++) {
+            if (hashes.remove(list.get(i))) {
+                notifyItemChanged(i);
             }
-        });
+        }
+    }
+
+    private boolean isChronological() {
+        return "1".equals(SpaceAndroidUtils.getSortPreference(activity, alias));
+    }
+
+    /**
+     * Re-sorts the list if the sort preference has changed.
+     */
+    public synchronized void sort() {
+        boolean c = isChronological();
+        if (c != chronological) {
+            chronological = c;
+            SpaceUtils.sort(sorted, timestamps, chronological);
+            // Every row moves so rebind rather than diff
+            differ.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the position after any existing entries with the same timestamp.
+     */
+    private int findInsertion(long timestamp) {
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long t = timestamps.get(sorted.get(mid));
+            if (chronological ? t <= timestamp : t >= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     protected boolean isShared(ByteString hash) {
         return shared.contains(hash);
     }
 
-    public void clear() {
-        metas.clear();
-        previews.clear();
+    public synchronized void clear() {
+        metas.evictAll();
+        unindexed.clear();
+        offsets.clear();
+        texts.evictAll();
         timestamps.clear();
         shared.clear();
         sorted.clear();
         metaHead = null;
         shareHead = null;
+        differ.invalidate();
     }
 
     @NonNull
@@ -130,7 +330,7 @@ public abstract class MetaAdapter extends RecyclerView.Adapter<MetaAdapter.ViewH
             public void onClick(View v) {
                 ByteString hash = holder.getHash();
                 if (hash != null) {
-                    Meta meta = metas.get(hash);
+                    Meta meta = getMeta(hash);
                     if (meta != null) {
                         onSelection(hash, meta);
                     }
@@ -142,36 +342,58 @@ public abstract class MetaAdapter extends RecyclerView.Adapter<MetaAdapter.ViewH
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        if (sorted.isEmpty()) {
+        if (differ.isEmpty()) {
             holder.setEmptyView();
         } else {
-            final ByteString hash = sorted.get(position);
-            Long time = timestamps.get(hash);
-            Meta meta = metas.get(hash);
-            if (time != null && meta != null) {
-                if (!previews.containsKey(hash)) {
+            final ByteString hash = differ.get(position);
+            Long time = getTimestamp(hash);
+            Meta meta = getMeta(hash);
+            if (time != null && meta == null) {
+                holder.setLoading(hash, time);
+                page(position);
+            } else if (time != null) {
+                String text = texts.get(hash);
+                Bitmap bitmap = previewCache.getBitmap(hash);
+                if (text == null && bitmap == null) {
                     loadPreview(hash);
                 }
-                Preview preview = previews.get(hash);
-                holder.set(hash, time, meta, preview, isShared(hash));
+                holder.set(hash, time, meta, text, bitmap, isShared(hash));
             }
         }
     }
 
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        ByteString hash = holder.getHash();
+        if (hash != null) {
+            cancelPreview(hash);
+        }
+    }
+
     protected abstract void loadPreview(ByteString hash);
 
+    protected abstract void cancelPreview(ByteString hash);
+
+    @Override
+    public long getItemId(int position) {
+        if (differ.isEmpty()) {
+            return RecyclerView.NO_ID;// For empty view
+        }
+        return SnapshotDiffer.getId(differ.get(position));
+    }
+
     @Override
     public int getItemCount() {
-        if (sorted.isEmpty()) {
+        if (differ.isEmpty()) {
             return 1;// For empty view
         }
-        return sorted.size();
+        return differ.size();
     }
 
     public abstract void onSelection(ByteString metaRecordHash, Meta meta);
 
-    public boolean isEmpty() {
-        return sorted.isEmpty();
+    public synchronized boolean isEmpty() {
+        return timestamps.isEmpty();
     }
 
     public ByteString getMetaHead() {
@@ -207,69 +429,45 @@ public abstract class MetaAdapter extends RecyclerView.Adapter<MetaAdapter.ViewH
             itemTime = view.findViewById(R.id.detail_list_item_time);
         }
 
-        void set(ByteString hash, Long time, Meta meta, Preview preview, boolean shared) {
+        void set(ByteString hash, Long time, Meta meta, String text, Bitmap bitmap, boolean shared) {
             this.hash = hash;
             String type = meta.getType();
             if (SpaceUtils.isText(type)) {
                 itemImage.setVisibility(View.GONE);
                 itemText.setVisibility(View.VISIBLE);
-                if (preview == null) {
+                if (text == null) {
                     setDefaultTextPreview();
                 } else {
-                    itemText.setText(preview.getData().toStringUtf8());
+                    itemText.setText(text);
                 }
             } else if (SpaceUtils.isImage(type)) {
                 itemImage.setVisibility(View.VISIBLE);
                 itemText.setVisibility(View.GONE);
-                if (preview == null) {
+                if (bitmap == null) {
                     setDefaultImagePreview(shared);
                 } else {
-                    Bitmap bitmap = BitmapFactory.decodeStream(preview.getData().newInput());
-                    if (bitmap == null) {
-                        setDefaultImagePreview(shared);
-                    } else {
-                        itemImage.setImageBitmap(bitmap);
-                    }
+                    itemImage.setImageBitmap(bitmap);
                 }
             } else if (SpaceUtils.isVideo(type)) {
                 itemImage.setVisibility(View.VISIBLE);
                 itemText.setVisibility(View.GONE);
-                if (preview == null) {
+                if (bitmap == null) {
                     setDefaultVideoPreview(shared);
                 } else {
-                    Bitmap bitmap = BitmapFactory.decodeStream(preview.getData().newInput());
-                    if (bitmap == null) {
-                        setDefaultVideoPreview(shared);
-                    } else {
-                        itemImage.setImageBitmap(bitmap);
-                    }
+                    itemImage.setImageBitmap(bitmap);
                 }
             } else if (SpaceUtils.isAudio(type)) {
                 itemImage.setVisibility(View.VISIBLE);
                 itemText.setVisibility(View.GONE);
-                if (preview == null) {
-                    setDefaultAudioPreview(shared);
-                } else {
-                    // TODO decode preview.getData().newInput() into audio visualization
-                    //Bitmap bitmap = BitmapFactory.decodeStream(preview.getData().newInput());
-                    //if (bitmap == null) {
-                        setDefaultAudioPreview(shared);
-                    //} else {
-                    //    itemImage.setImageBitmap(bitmap);
-                    //}
-                }
+                // TODO decode audio preview into audio visualization
+                setDefaultAudioPreview(shared);
             } else {
                 itemImage.setVisibility(View.VISIBLE);
                 itemText.setVisibility(View.GONE);
-                if (preview == null) {
+                if (bitmap == null) {
                     setDefaultFilePreview(shared);
                 } else {
-                    Bitmap bitmap = BitmapFactory.decodeStream(preview.getData().newInput());
-                    if (bitmap == null) {
-                        setDefaultFilePreview(shared);
-                    } else {
-                        itemImage.setImageBitmap(bitmap);
-                    }
+                    itemImage.setImageBitmap(bitmap);
                 }
             }
             if (shared) {
@@ -325,6 +523,15 @@ public abstract class MetaAdapter extends RecyclerView.Adapter<MetaAdapter.ViewH
             return hash;
         }
 
+        void setLoading(ByteString hash, Long time) {
+            this.hash = hash;
+            itemImage.setVisibility(View.VISIBLE);
+            itemText.setVisibility(View.GONE);
+            setDefaultFilePreview(false);
+            itemTitle.setText("");
+            itemTime.setText(CommonUtils.timeToString(time));
+        }
+
         void setEmptyView() {
             hash = null;
             itemTitle.setText(R.string.empty_detail_list);
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.aletheiaware.common.utils.CommonUtils;
+import com.aletheiaware.space.SpaceProto.Meta;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.google.protobuf.ByteString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Append-only on-device index of decrypted Meta records, keyed by meta record hash.
+ *
+ * Each entry is written as: hash length, hash, timestamp, shared flag, meta length, meta.
+ *
+ * Loading the index only reads the keys of each entry along with its offset, so that the Meta
+ * records themselves can be read a page at a time as they are displayed.
+ */
+public class MetaIndex {
+
+    public interface MetaIndexCallback {
+        void onEntry(ByteString recordHash, long timestamp, boolean shared, long offset);
+    }
+
+    private final File file;
+    private DataOutputStream out;
+    private long end;
+
+    public MetaIndex(Context context, String alias) {
+        File directory = new File(context.getFilesDir(), "index");
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(SpaceUtils.TAG, "Error making index directory");
+        }
+        file = new File(directory, new String(CommonUtils.encodeBase64URL(alias.getBytes())));
+    }
+
+    public boolean isEmpty() {
+        return !file.exists() || file.length() == 0;
+    }
+
+    @WorkerThread
+    public synchronized int load(MetaIndexCallback callback) throws IOException {
+        flush();
+        if (isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte[] hash = new byte[in.readInt()];
+                in.readFully(hash);
+                long timestamp = in.readLong();
+                boolean shared = in.readBoolean();
+                int length = in.readInt();
+                if (in.skipBytes(length) < length) {
+                    throw new EOFException();
+                }
+                long offset = valid;
+                valid += 4 + hash.length + 8 + 1 + 4 + length;
+                callback.onEntry(ByteString.copyFrom(hash), timestamp, shared, offset);
+                count++;
+            }
+        } catch (EOFException e) {
+            /* Ignored - end of index */
+        }
+        if (valid < file.length()) {
+            // Drop partially written entry left by an interrupted append
+            Log.w(SpaceUtils.TAG, "Truncating index from " + file.length() + " to " + valid);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Appends the entry and returns its offset.
+     */
+    @WorkerThread
+    public synchronized long put(ByteString recordHash, long timestamp, Meta meta, boolean shared) throws IOException {
+        if (out == null) {
+            end = file.length();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+        byte[] hash = recordHash.toByteArray();
+        byte[] data = meta.toByteArray();
+        out.writeInt(hash.length);
+        out.write(hash);
+        out.writeLong(timestamp);
+        out.writeBoolean(shared);
+        out.writeInt(data.length);
+        out.write(data);
+        long offset = end;
+        end += 4 + hash.length + 8 + 1 + 4 + data.length;
+        return offset;
+    }
+
+    /**
+     * Reads the Meta of the entry at each offset.
+     */
+    @WorkerThread
+    public synchronized Meta[] read(long[] offsets) throws IOException {
+        flush();
+        Meta[] metas = new Meta[offsets.length];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int i = 0; i < offsets.length; i++) {
+                raf.seek(offsets[i]);
+                raf.skipBytes(raf.readInt() + 8 + 1);// Hash, timestamp, shared flag
+                byte[] meta = new byte[raf.readInt()];
+                raf.readFully(meta);
+                metas[i] = Meta.newBuilder().mergeFrom(meta).build();
+            }
+        }
+        return metas;
+    }
+
+    @WorkerThread
+    public synchronized void flush() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    public synchronized void clear() {
+        try {
+            flush();
+        } catch (IOException e) {
+            /* Ignored */
+            e.printStackTrace();
+        }
+        if (file.exists() && !file.delete()) {
+            Log.e(SpaceUtils.TAG, "Error deleting index");
+        }
+    }
+}
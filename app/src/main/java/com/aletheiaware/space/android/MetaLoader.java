@@ -38,8 +38,16 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -49,6 +57,11 @@ import androidx.annotation.WorkerThread;
 
 public abstract class MetaLoader implements RecordCallback {
 
+    private static final int FETCH_THREADS = 4;
+    private static final int DECRYPT_THREADS = 2;
+    private static final int WINDOW = 8;// Maximum chunks held in memory while reading a file
+    private static final int BATCH_SIZE = 4;// Chunks fetched per batch
+
     private final String alias;
     private final KeyPair keys;
     private final Cache cache;
@@ -123,85 +136,154 @@ public abstract class MetaLoader implements RecordCallback {
     @WorkerThread
     public void loadMeta() throws IOException {
         if (shared) {
-            PoWChannel shares = SpaceUtils.getShareChannel(alias);
-            ChannelUtils.loadHead(shares, cache);
-            try {
-                // TODO is this pull needed since SpaceUtils.readShares will request missing blocks?
-                ChannelUtils.pull(shares, cache, network);
-            } catch (NoSuchAlgorithmException e) {
-                /* Ignored */
-                e.printStackTrace();
-            }
+            PoWChannel shares = ChannelSync.sync(SpaceUtils.getShareChannel(alias), cache, network);
             SpaceUtils.readShares(shares, cache, network, alias, keys, null, metaRecordHash, null,this, null);
         } else {
-            final PoWChannel metas = SpaceUtils.getMetaChannel(alias);
-            ChannelUtils.loadHead(metas, cache);
-            try {
-                // TODO is this pull needed since ChannelUtils.read will request missing blocks?
-                ChannelUtils.pull(metas, cache, network);
-            } catch (NoSuchAlgorithmException e) {
-                /* Ignored */
-                e.printStackTrace();
-            }
+            final PoWChannel metas = ChannelSync.sync(SpaceUtils.getMetaChannel(alias), cache, network);
             ChannelUtils.read(metas.getName(), metas.getHead(), null, cache, network, alias, keys, metaRecordHash, this);
         }
     }
 
     public void readFile(RecordCallback callback) throws IOException {
+        readFile(0, callback);
+    }
+
+    /**
+     * Reads the file starting from the given chunk, which is ignored for shared files.
+     */
+    public void readFile(int start, RecordCallback callback) throws IOException {
         if (shared) {
-            PoWChannel shares = SpaceUtils.getShareChannel(alias);
-            ChannelUtils.loadHead(shares, cache);
-            try {
-                // TODO is this pull needed since SpaceUtils.readShares will request missing blocks?
-                ChannelUtils.pull(shares, cache, network);
-            } catch (NoSuchAlgorithmException e) {
-                /* Ignored */
-                e.printStackTrace();
-            }
+            PoWChannel shares = ChannelSync.sync(SpaceUtils.getShareChannel(alias), cache, network);
             SpaceUtils.readShares(shares, cache, network, alias, keys, null, metaRecordHash, null, null, callback);
         } else if (references != null) {
-            for (Reference reference : references) {
-                Log.d(SpaceUtils.TAG, "Reading: " + reference);
-                Block block = cache.getBlockContainingRecord(reference.getChannelName(), reference.getRecordHash());
-                if (block == null) {
-                    block = network.getBlock(reference);
-                    if (block != null) {
-                        try {
-                            cache.putBlock(ByteString.copyFrom(Crypto.getProtobufHash(block)), block);
-                        } catch (NoSuchAlgorithmException e) {
-                            /* Ignored */
-                            e.printStackTrace();
+            // Fetch in batches and decrypt up to WINDOW chunks ahead, emitting them in reference order
+            ExecutorService fetchers = Executors.newFixedThreadPool(FETCH_THREADS);
+            ExecutorService decrypters = Executors.newFixedThreadPool(DECRYPT_THREADS);
+            Deque<Future<Chunk>> window = new ArrayDeque<>();
+            try {
+                int next = start;
+                while (next < references.size() || !window.isEmpty()) {
+                    while (next < references.size() && window.size() + BATCH_SIZE <= WINDOW) {
+                        int end = Math.min(references.size(), next + BATCH_SIZE);
+                        final List<Reference> batch = references.subList(next, end);
+                        final Future<Map<Reference, Block>> blocks = fetchers.submit(new Callable<Map<Reference, Block>>() {
+                            @Override
+                            public Map<Reference, Block> call() {
+                                return BlockFetcher.fetch(cache, network, batch);
+                            }
+                        });
+                        for (Reference reference : batch) {
+                            window.add(submitChunk(reference, blocks, decrypters));
                         }
+                        next = end;
+                    }
+                    Chunk chunk = window.remove().get();
+                    if (chunk == null) {
+                        // TODO show error
+                        break;
+                    }
+                    if (!callback.onRecord(chunk.blockHash, chunk.block, chunk.entry, chunk.key, chunk.payload)) {
+                        return;
                     }
                 }
-                if (block == null) {
-                    // TODO show error
-                    break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // TODO show error
+                e.printStackTrace();
+            } finally {
+                fetchers.shutdownNow();
+                decrypters.shutdownNow();
+            }
+        }
+    }
+
+    public List<Reference> getReferences() {
+        return references;
+    }
+
+    public boolean isStreamable() {
+        return !shared && references != null && !references.isEmpty();
+    }
+
+    public int getChunkCount() {
+        if (references == null) {
+            return 0;
+        }
+        return references.size();
+    }
+
+    @WorkerThread
+    public byte[] readChunk(int index) throws IOException {
+        Reference reference = references.get(index);
+        Block block = getBlock(reference);
+        if (block == null) {
+            throw new IOException("Missing block for chunk " + index);
+        }
+        try {
+            Chunk chunk = decryptChunk(reference, block);
+            if (chunk == null) {
+                throw new IOException("No access to chunk " + index);
+            }
+            return chunk.payload;
+        } catch (BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private Future<Chunk> submitChunk(final Reference reference, final Future<Map<Reference, Block>> blocks, ExecutorService decrypters) {
+        return decrypters.submit(new Callable<Chunk>() {
+            @Override
+            public Chunk call() throws Exception {
+                Block b = blocks.get().get(reference);
+                if (b == null) {
+                    return null;
                 }
-                try {
-                    ByteString hash = ByteString.copyFrom(Crypto.getProtobufHash(block));
-                    for (BlockEntry entry : block.getEntryList()) {
-                        final ByteString rh = entry.getRecordHash();
-                        if (Arrays.equals(rh.toByteArray(), reference.getRecordHash().toByteArray())) {
-                            final Record record = entry.getRecord();
-                            for (Record.Access a : record.getAccessList()) {
-                                if (a.getAlias().equals(alias)) {
-                                    byte[] key = a.getSecretKey().toByteArray();
-                                    byte[] decryptedKey = Crypto.decryptRSA(keys.getPrivate(), key);
-                                    byte[] decryptedPayload = Crypto.decryptAES(decryptedKey, record.getPayload().toByteArray());
-                                    if (!callback.onRecord(hash, block, entry, decryptedKey, decryptedPayload)) {
-                                        return;
-                                    }
-                                }
-                            }
-                        }
+                return decryptChunk(reference, b);
+            }
+        });
+    }
+
+    @WorkerThread
+    private Block getBlock(Reference reference) {
+        Log.d(SpaceUtils.TAG, "Reading: " + reference);
+        return BlockFetcher.get(cache, network, reference);
+    }
+
+    @WorkerThread
+    private Chunk decryptChunk(Reference reference, Block block) throws BadPaddingException, IllegalBlockSizeException, InvalidAlgorithmParameterException, InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException {
+        ByteString hash = ByteString.copyFrom(Crypto.getProtobufHash(block));
+        for (BlockEntry entry : block.getEntryList()) {
+            final ByteString rh = entry.getRecordHash();
+            if (Arrays.equals(rh.toByteArray(), reference.getRecordHash().toByteArray())) {
+                final Record record = entry.getRecord();
+                for (Record.Access a : record.getAccessList()) {
+                    if (a.getAlias().equals(alias)) {
+                        byte[] key = a.getSecretKey().toByteArray();
+                        byte[] decryptedKey = KeyCache.decryptRSA(keys.getPrivate(), key);
+                        byte[] decryptedPayload = Crypto.decryptAES(decryptedKey, record.getPayload().toByteArray());
+                        return new Chunk(hash, block, entry, decryptedKey, decryptedPayload);
                     }
-                } catch (BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException e) {
-                    // TODO show error
-                    e.printStackTrace();
                 }
             }
         }
+        return null;
+    }
+
+    private static class Chunk {
+        final ByteString blockHash;
+        final Block block;
+        final BlockEntry entry;
+        final byte[] key;
+        final byte[] payload;
+
+        Chunk(ByteString blockHash, Block block, BlockEntry entry, byte[] key, byte[] payload) {
+            this.blockHash = blockHash;
+            this.block = block;
+            this.entry = entry;
+            this.key = key;
+            this.payload = payload;
+        }
     }
 
     public abstract void onMetaLoaded();
@@ -45,8 +45,7 @@ public class MinerArrayAdapter extends ArrayAdapter<String> {
             @Override
             public void run() {
                 try {
-                    PoWChannel miners = SpaceUtils.getMinerChannel();
-                    ChannelUtils.loadHead(miners, cache);
+                    PoWChannel miners = ChannelSync.get(SpaceUtils.getMinerChannel(), cache);
                     ChannelUtils.read(miners.getName(), miners.getHead(), null, cache, network, null, null, null, new RecordCallback() {
                         @Override
                         public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
@@ -45,13 +45,23 @@ public abstract class MinerRecyclerAdapter extends RecyclerView.Adapter<MinerRec
     private final Map<String, Registration> registrations = new HashMap<>();
     private final Map<String, Subscription> subscriptions = new HashMap<>();
     private final List<String> sorted = new ArrayList<>();
+    private final SnapshotDiffer<String> differ;
 
     public MinerRecyclerAdapter(Activity activity) {
         this.activity = activity;
         inflater = activity.getLayoutInflater();
+        differ = new SnapshotDiffer<>(this, new SnapshotDiffer.Source<String>() {
+            @Override
+            public List<String> getSnapshot() {
+                synchronized (MinerRecyclerAdapter.this) {
+                    return new ArrayList<>(sorted);
+                }
+            }
+        });
+        setHasStableIds(true);
     }
 
-    public void addMiner(Miner miner, Registration registration, Subscription subscription) {
+    public synchronized void addMiner(Miner miner, Registration registration, Subscription subscription) {
         String key = miner.getMerchant().getAlias();
         if (!miners.containsKey(key)) {
             miners.put(key, miner);
@@ -88,12 +98,7 @@ public abstract class MinerRecyclerAdapter extends RecyclerView.Adapter<MinerRec
                 return m1.compareTo(m2);
             }
         });
-        activity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                notifyDataSetChanged();
-            }
-        });
+        differ.invalidate();
     }
 
     @NonNull
@@ -120,10 +125,10 @@ public abstract class MinerRecyclerAdapter extends RecyclerView.Adapter<MinerRec
 
     @Override
     public void onBindViewHolder(@NonNull MinerRecyclerAdapter.ViewHolder holder, int position) {
-        if (sorted.isEmpty()) {
+        if (differ.isEmpty()) {
             holder.setEmptyView();
         } else {
-            String alias = sorted.get(position);
+            String alias = differ.get(position);
             if (alias != null) {
                 Miner miner = miners.get(alias);
                 if (miner != null) {
@@ -133,12 +138,20 @@ public abstract class MinerRecyclerAdapter extends RecyclerView.Adapter<MinerRec
         }
     }
 
+    @Override
+    public long getItemId(int position) {
+        if (differ.isEmpty()) {
+            return RecyclerView.NO_ID;// For empty view
+        }
+        return SnapshotDiffer.getId(differ.get(position));
+    }
+
     @Override
     public int getItemCount() {
-        if (sorted.isEmpty()) {
+        if (differ.isEmpty()) {
             return 1;// For empty view
         }
-        return sorted.size();
+        return differ.size();
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.util.Log;
+
+import com.aletheiaware.bc.BCProto.Block;
+import com.aletheiaware.bc.BCProto.Reference;
+import com.aletheiaware.bc.TCPNetwork;
+import com.aletheiaware.space.utils.SpaceUtils;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * TCPNetwork shared across the process for a given set of peers.
+ *
+ * The block protocol uses one connection per request so no sockets are held open; instead one
+ * instance is shared between all callers of a peer set, at most CONNECTIONS_PER_HOST block
+ * connections are open to each peer at once, and identical in-flight block requests are
+ * multiplexed onto a single connection. Only the MAX_NETWORKS most recently used peer sets are
+ * kept; callers still holding an evicted instance can keep using it.
+ */
+public class PooledNetwork extends TCPNetwork {
+
+    private static final int CONNECTIONS_PER_HOST = 4;
+    private static final int MAX_NETWORKS = 16;
+
+    private static final Map<Set<InetAddress>, PooledNetwork> pool = new LinkedHashMap<Set<InetAddress>, PooledNetwork>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Set<InetAddress>, PooledNetwork> eldest) {
+            return size() > MAX_NETWORKS;
+        }
+    };
+    private static final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Returns the shared network for the given peers, creating it if needed.
+     */
+    public static PooledNetwork get(InetAddress[] addresses) {
+        Set<InetAddress> key = new HashSet<>(Arrays.asList(addresses));
+        synchronized (pool) {
+            PooledNetwork network = pool.get(key);
+            if (network == null) {
+                network = new PooledNetwork(addresses);
+                pool.put(key, network);
+            }
+            return network;
+        }
+    }
+
+    private final TCPNetwork[] peers;
+    private final Semaphore[] connections;
+    private final Map<Reference, Request> requests = new HashMap<>();
+
+    private PooledNetwork(InetAddress[] addresses) {
+        super(addresses);
+        peers = new TCPNetwork[addresses.length];
+        connections = new Semaphore[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            peers[i] = new TCPNetwork(new InetAddress[]{addresses[i]});
+            connections[i] = new Semaphore(CONNECTIONS_PER_HOST, true);
+        }
+    }
+
+    @WorkerThread
+    @Override
+    public Block getBlock(Reference reference) {
+        Request request;
+        boolean owner = false;
+        synchronized (requests) {
+            request = requests.get(reference);
+            if (request == null) {
+                request = new Request();
+                requests.put(reference, request);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            Log.d(SpaceUtils.TAG, "Joining request for " + reference);
+            try {
+                request.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return request.block;
+        }
+        try {
+            // Try each peer in turn, holding one of that peer's connections for the request
+            for (int i = 0; i < peers.length && request.block == null; i++) {
+                connections[i].acquireUninterruptibly();
+                try {
+                    request.block = peers[i].getBlock(reference);
+                } finally {
+                    connections[i].release();
+                }
+            }
+        } finally {
+            synchronized (requests) {
+                requests.remove(reference);
+            }
+            request.done.countDown();
+        }
+        return request.block;
+    }
+
+    /**
+     * Requests all blocks concurrently, each as its own getBlock call within the per peer connection
+     * limit, omitting those which could not be fetched.
+     */
+    @WorkerThread
+    public Map<Reference, Block> getBlocks(Collection<Reference> references) {
+        Map<Reference, Future<Block>> futures = new HashMap<>();
+        for (final Reference reference : references) {
+            futures.put(reference, executor.submit(new Callable<Block>() {
+                @Override
+                public Block call() {
+                    return getBlock(reference);
+                }
+            }));
+        }
+        Map<Reference, Block> blocks = new HashMap<>();
+        for (Map.Entry<Reference, Future<Block>> e : futures.entrySet()) {
+            try {
+                Block block = e.getValue().get();
+                if (block != null) {
+                    blocks.put(e.getKey(), block);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException ex) {
+                /* Ignored */
+                ex.printStackTrace();
+            }
+        }
+        return blocks;
+    }
+
+    private static class Request {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Block block;
+    }
+}
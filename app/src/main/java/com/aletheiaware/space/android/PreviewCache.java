@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.aletheiaware.common.utils.CommonUtils;
+import com.aletheiaware.space.SpaceProto.Preview;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.google.protobuf.ByteString;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Two-tier cache of previews keyed by meta record hash.
+ *
+ * Decoded bitmaps are held in memory within a byte budget, decrypted previews are held on disk so
+ * they can be decoded again without touching the network. Previews trimmed from disk are found
+ * again through the PreviewIndex, which is kept in app storage and never trimmed.
+ *
+ * Bitmaps evicted from memory are left to the garbage collector rather than decoded into again, as
+ * they may still be displayed by a view. The cache belongs to one account at a time and is cleared
+ * when another account uses it or the account signs out.
+ */
+public class PreviewCache {
+
+    private static final int MEMORY_FRACTION = 8;// Use 1/8th of the heap for bitmaps
+    private static final long DISK_BUDGET = 32 * 1024 * 1024;
+    private static final int DISK_TRIM_INTERVAL = 32;
+
+    private static PreviewCache instance;
+
+    public static synchronized PreviewCache get(Context context) {
+        if (instance == null) {
+            Context c = context.getApplicationContext();
+            instance = new PreviewCache(new File(c.getCacheDir(), "preview"), new PreviewIndex(new File(c.getFilesDir(), "preview_location")), new File(c.getFilesDir(), "preview_owner"));
+        }
+        return instance;
+    }
+
+    private final File directory;
+    private final PreviewIndex index;
+    private final File owner;
+    private final LruCache<ByteString, Bitmap> bitmaps;
+    private int writes = 0;
+
+    private PreviewCache(File directory, PreviewIndex index, File owner) {
+        this.directory = directory;
+        this.index = index;
+        this.owner = owner;
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(SpaceUtils.TAG, "Error making preview directory");
+        }
+        int budget = (int) (Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+        bitmaps = new LruCache<ByteString, Bitmap>(budget) {
+            @Override
+            protected int sizeOf(ByteString key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Clears the cache if it holds previews read by another account.
+     */
+    @WorkerThread
+    public synchronized void setAlias(String alias) {
+        String previous = null;
+        if (owner.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(owner))) {
+                previous = in.readUTF();
+            } catch (IOException e) {
+                /* Ignored */
+                e.printStackTrace();
+            }
+        }
+        if (alias.equals(previous)) {
+            return;
+        }
+        Log.d(SpaceUtils.TAG, "Clearing previews of " + previous);
+        clear();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(owner))) {
+            out.writeUTF(alias);
+        } catch (IOException e) {
+            /* Ignored */
+            e.printStackTrace();
+        }
+    }
+
+    public PreviewIndex getIndex() {
+        return index;
+    }
+
+    @Nullable
+    public Bitmap getBitmap(ByteString hash) {
+        return bitmaps.get(hash);
+    }
+
+    @WorkerThread
+    @Nullable
+    public Bitmap decode(ByteString hash, Preview preview) {
+        byte[] data = preview.getData().toByteArray();
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+        if (bitmap != null) {
+            bitmaps.put(hash, bitmap);
+        }
+        return bitmap;
+    }
+
+    @WorkerThread
+    @Nullable
+    public Preview getPreview(ByteString hash) {
+        File file = getFile(hash);
+        if (!file.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return Preview.newBuilder().mergeFrom(in).build();
+        } catch (IOException e) {
+            /* Ignored */
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @WorkerThread
+    public void putPreview(ByteString hash, Preview preview) {
+        try (OutputStream out = new FileOutputStream(getFile(hash))) {
+            preview.writeTo(out);
+        } catch (IOException e) {
+            /* Ignored */
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            if (++writes % DISK_TRIM_INTERVAL == 0) {
+                trim();
+            }
+        }
+    }
+
+    @WorkerThread
+    public void clear() {
+        index.clear();
+        bitmaps.evictAll();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.delete()) {
+                    Log.e(SpaceUtils.TAG, "Error deleting " + f);
+                }
+            }
+        }
+    }
+
+    private File getFile(ByteString hash) {
+        return new File(directory, new String(CommonUtils.encodeBase64URL(hash.toByteArray())));
+    }
+
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        if (total <= DISK_BUDGET) {
+            return;
+        }
+        // Delete least recently written first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File f : files) {
+            if (total <= DISK_BUDGET) {
+                break;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                total -= length;
+            }
+        }
+    }
+}
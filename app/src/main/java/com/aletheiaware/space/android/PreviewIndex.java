@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.util.Log;
+
+import com.aletheiaware.bc.BCProto.Reference;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.google.protobuf.ByteString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Append-only on-device index of the location of the best Preview record of each file, keyed by
+ * meta record hash.
+ *
+ * Each entry is written as: hash length, hash, reference length, reference, preview. For the
+ * alias's own files the reference is to the Preview record and preview is -1. For shared files the
+ * reference is to the Share record and preview is the index of the chosen preview within it, so
+ * the preview key is unwrapped from the Share again rather than ever being written to disk. Later
+ * entries for a hash replace earlier ones.
+ *
+ * Once a file's preview channel has been read its preview can be found again with one or two
+ * record reads, without loading or pulling the channel.
+ */
+public class PreviewIndex {
+
+    public static class Location {
+        public final Reference reference;
+        public final int preview;
+
+        Location(Reference reference, int preview) {
+            this.reference = reference;
+            this.preview = preview;
+        }
+
+        public boolean isShared() {
+            return preview >= 0;
+        }
+    }
+
+    private final File file;
+    private Map<ByteString, Location> locations;
+    private DataOutputStream out;
+
+    public PreviewIndex(File file) {
+        this.file = file;
+    }
+
+    @WorkerThread
+    @Nullable
+    public synchronized Location get(ByteString metaRecordHash) {
+        load();
+        return locations.get(metaRecordHash);
+    }
+
+    @WorkerThread
+    public synchronized void put(ByteString metaRecordHash, Reference reference, int preview) {
+        load();
+        Location location = new Location(reference, preview);
+        locations.put(metaRecordHash, location);
+        try {
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+            write(out, metaRecordHash.toByteArray());
+            write(out, reference.toByteArray());
+            out.writeInt(preview);
+            // Entries are small and infrequent, flush so they survive the process being killed
+            out.flush();
+        } catch (IOException e) {
+            /* Ignored */
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized void clear() {
+        close();
+        locations = null;
+        if (file.exists() && !file.delete()) {
+            Log.e(SpaceUtils.TAG, "Error deleting preview index");
+        }
+    }
+
+    private void load() {
+        if (locations != null) {
+            return;
+        }
+        locations = new HashMap<>();
+        if (!file.exists()) {
+            return;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte[] hash = read(in);
+                byte[] reference = read(in);
+                int preview = in.readInt();
+                valid += 4 + hash.length + 4 + reference.length + 4;
+                locations.put(ByteString.copyFrom(hash), new Location(Reference.newBuilder().mergeFrom(reference).build(), preview));
+            }
+        } catch (EOFException e) {
+            /* Ignored - end of index */
+        } catch (IOException e) {
+            /* Ignored */
+            e.printStackTrace();
+        }
+        Log.d(SpaceUtils.TAG, "Indexed Previews: " + locations.size());
+        if (valid < file.length()) {
+            // Drop partially written entry left by an interrupted append
+            Log.w(SpaceUtils.TAG, "Truncating preview index from " + file.length() + " to " + valid);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            } catch (IOException e) {
+                /* Ignored */
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                /* Ignored */
+                e.printStackTrace();
+            }
+            out = null;
+        }
+    }
+
+    private static byte[] read(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void write(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+}
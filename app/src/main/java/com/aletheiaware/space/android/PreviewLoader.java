@@ -0,0 +1,235 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.util.Log;
+
+import com.aletheiaware.bc.Cache;
+import com.aletheiaware.bc.Network;
+import com.aletheiaware.space.SpaceProto.Preview;
+import com.aletheiaware.space.android.utils.PreviewUtils;
+import com.aletheiaware.space.android.utils.PreviewUtils.PreviewCallback;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Loads previews on a bounded pool of worker threads.
+ *
+ * Requests for the same meta record hash are de-duplicated while in flight, queued requests are
+ * cancelled when their row is recycled, and the most recently requested (ie visible) rows load first.
+ * Previews are read from the PreviewCache before the network, and image previews are decoded on the
+ * worker thread so binding a row never decodes.
+ *
+ * A preview which could not be found is not requested again until a backoff has passed, as its
+ * block may still be on its way to the registrars, or until the meta or share channel's head moves.
+ */
+public class PreviewLoader implements ChannelSync.HeadListener {
+
+    private static final int THREADS = 3;
+    private static final long MISSING_BACKOFF = 30 * 1000;// 30 seconds
+    private static final long MISSING_MAX_BACKOFF = 10 * 60 * 1000;// 10 minutes
+
+    private final String alias;
+    private final KeyPair keys;
+    private final Cache cache;
+    private final PreviewCache previewCache;
+    private final PreviewCallback callback;
+    private final int size;
+    private final ThreadPoolExecutor executor;
+    private final Map<ByteString, Request> requests = new HashMap<>();
+    private final Map<ByteString, Missing> missing = new HashMap<>();
+    private final Object networkLock = new Object();
+    private long sequence = 0;
+    private volatile Network network;
+
+    /**
+     * Creates a loader for previews displayed in views whose longest side is size pixels.
+     */
+    public PreviewLoader(String alias, KeyPair keys, Cache cache, PreviewCache previewCache, int size, PreviewCallback callback) {
+        this.alias = alias;
+        this.keys = keys;
+        this.cache = cache;
+        this.previewCache = previewCache;
+        this.callback = callback;
+        this.size = size;
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        ChannelSync.subscribe(SpaceUtils.getMetaChannel(alias).getName(), this);
+        ChannelSync.subscribe(SpaceUtils.getShareChannel(alias).getName(), this);
+    }
+
+    public synchronized void load(ByteString hash, boolean shared) {
+        Missing m = missing.get(hash);
+        if (m != null && System.currentTimeMillis() < m.retry) {
+            // Preview didn't exist when last requested
+            return;
+        }
+        Request request = requests.get(hash);
+        if (request != null) {
+            if (executor.remove(request)) {
+                // Still queued, bump to the front
+                request.priority = ++sequence;
+                executor.execute(request);
+            }
+            return;
+        }
+        request = new Request(hash, shared, ++sequence);
+        requests.put(hash, request);
+        executor.execute(request);
+    }
+
+    public synchronized void cancel(ByteString hash) {
+        Request request = requests.get(hash);
+        if (request != null && executor.remove(request)) {
+            requests.remove(hash);
+        }
+    }
+
+    @Override
+    public synchronized void onHead(String channel, ByteString head) {
+        // New records may carry previews which were missing
+        missing.clear();
+    }
+
+    public synchronized void clear() {
+        executor.getQueue().clear();
+        requests.clear();
+        missing.clear();
+        network = null;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the registrar network, resolving it under its own lock so that load and cancel, which
+     * are called while binding rows, never wait on the network.
+     */
+    @WorkerThread
+    private Network getNetwork() throws IOException, IllegalBlockSizeException, InvalidKeyException, NoSuchAlgorithmException, BadPaddingException, NoSuchPaddingException, InvalidAlgorithmParameterException {
+        Network n = network;
+        if (n == null) {
+            synchronized (networkLock) {
+                n = network;
+                if (n == null) {
+                    n = ProviderResolver.get(alias, keys, cache).getRegistrarNetwork();
+                    network = n;
+                }
+            }
+        }
+        return n;
+    }
+
+    private synchronized void complete(ByteString hash, boolean displayable) {
+        requests.remove(hash);
+        if (displayable) {
+            missing.remove(hash);
+            return;
+        }
+        Missing m = missing.get(hash);
+        if (m == null) {
+            m = new Missing();
+            missing.put(hash, m);
+        }
+        long backoff = Math.min(MISSING_MAX_BACKOFF, MISSING_BACKOFF << Math.min(m.attempts, 16));
+        m.attempts++;
+        m.retry = System.currentTimeMillis() + backoff;
+    }
+
+    private static class Missing {
+        int attempts;
+        long retry;
+    }
+
+    private class Request implements Runnable, Comparable<Request> {
+
+        final ByteString hash;
+        final boolean shared;
+        volatile long priority;
+
+        Request(ByteString hash, boolean shared, long priority) {
+            this.hash = hash;
+            this.shared = shared;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Preview preview = previewCache.getPreview(hash);
+                if (preview == null) {
+                    final Preview[] result = {null};
+                    PreviewUtils.loadPreview(alias, keys, cache, getNetwork(), previewCache.getIndex(), hash, shared, size, new PreviewCallback() {
+                        @Override
+                        public void onPreview(ByteString hash, Preview preview) {
+                            if (result[0] == null) {
+                                result[0] = preview;
+                            }
+                        }
+                    });
+                    preview = result[0];
+                    if (preview != null) {
+                        previewCache.putPreview(hash, preview);
+                    }
+                }
+                boolean displayable = false;
+                if (preview != null) {
+                    if (SpaceUtils.isImage(preview.getType())) {
+                        displayable = previewCache.decode(hash, preview) != null;
+                    } else {
+                        displayable = SpaceUtils.isText(preview.getType());
+                    }
+                }
+                // Previews which can't be displayed are not requested again until their backoff passes
+                complete(hash, displayable);
+                if (displayable) {
+                    callback.onPreview(hash, preview);
+                }
+            } catch (IOException | IllegalBlockSizeException | InvalidKeyException | NoSuchAlgorithmException | BadPaddingException | NoSuchPaddingException | InvalidAlgorithmParameterException e) {
+                Log.e(SpaceUtils.TAG, "Failed to load preview", e);
+                synchronized (PreviewLoader.this) {
+                    // Allow a later bind to retry
+                    requests.remove(hash);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            // Newest request first
+            return Long.compare(other.priority, priority);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.util.Log;
+
+import com.aletheiaware.bc.Cache;
+import com.aletheiaware.bc.Network;
+import com.aletheiaware.finance.FinanceProto.Registration;
+import com.aletheiaware.space.SpaceProto.Registrar;
+import com.aletheiaware.space.android.utils.SpaceAndroidUtils;
+import com.aletheiaware.space.utils.SpaceUtils;
+
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Process-wide cache of the alias's registrations, registrars, and the network used to reach them.
+ *
+ * Providers are resolved at most once per TTL and shared between concurrent callers. Registrations
+ * and registrars are read concurrently; registrars are read unfiltered and then matched to the
+ * registrations. The cache must be invalidated when the alias registers or subscribes with a provider.
+ */
+public class ProviderResolver {
+
+    private static final long TTL = 10 * 60 * 1000;// 10 minutes
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private static Providers providers;
+
+    private ProviderResolver() {}
+
+    @WorkerThread
+    public static synchronized Providers get(final String alias, KeyPair keys, final Cache cache) throws IOException, IllegalBlockSizeException, InvalidKeyException, NoSuchAlgorithmException, BadPaddingException, NoSuchPaddingException, InvalidAlgorithmParameterException {
+        long now = System.currentTimeMillis();
+        if (providers != null && providers.alias.equals(alias) && now - providers.resolved < TTL) {
+            return providers;
+        }
+        final Network spaceNetwork = SpaceAndroidUtils.getSpaceNetwork();
+        Future<Map<String, Registrar>> all = executor.submit(new Callable<Map<String, Registrar>>() {
+            @Override
+            public Map<String, Registrar> call() throws Exception {
+                return SpaceAndroidUtils.getRegistrars(null, cache, spaceNetwork);
+            }
+        });
+        Map<String, Registration> registrations;
+        try {
+            registrations = SpaceAndroidUtils.getRegistrations(alias, keys, cache, spaceNetwork);
+        } catch (IOException | IllegalBlockSizeException | InvalidKeyException | NoSuchAlgorithmException | BadPaddingException | NoSuchPaddingException | InvalidAlgorithmParameterException e) {
+            all.cancel(true);
+            throw e;
+        }
+        Map<String, Registrar> registrars = new HashMap<>();
+        try {
+            for (Map.Entry<String, Registrar> e : all.get().entrySet()) {
+                if (registrations.containsKey(e.getKey())) {
+                    registrars.put(e.getKey(), e.getValue());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        Network registrarNetwork = null;
+        if (!registrars.isEmpty()) {
+            registrarNetwork = SpaceAndroidUtils.getRegistrarNetwork(registrars);
+        }
+        Log.d(SpaceUtils.TAG, "Resolved providers in " + (System.currentTimeMillis() - now) + "ms");
+        providers = new Providers(alias, now, spaceNetwork, registrations, registrars, registrarNetwork);
+        return providers;
+    }
+
+    public static synchronized void invalidate() {
+        providers = null;
+    }
+
+    public static class Providers {
+
+        private final String alias;
+        private final long resolved;
+        private final Network spaceNetwork;
+        private final Map<String, Registration> registrations;
+        private final Map<String, Registrar> registrars;
+        private final Network registrarNetwork;
+
+        Providers(String alias, long resolved, Network spaceNetwork, Map<String, Registration> registrations, Map<String, Registrar> registrars, Network registrarNetwork) {
+            this.alias = alias;
+            this.resolved = resolved;
+            this.spaceNetwork = spaceNetwork;
+            this.registrations = Collections.unmodifiableMap(registrations);
+            this.registrars = Collections.unmodifiableMap(registrars);
+            this.registrarNetwork = registrarNetwork;
+        }
+
+        public Network getSpaceNetwork() {
+            return spaceNetwork;
+        }
+
+        public Map<String, Registration> getRegistrations() {
+            return registrations;
+        }
+
+        public Map<String, Registrar> getRegistrars() {
+            return registrars;
+        }
+
+        /**
+         * Returns the network of the alias's registrars, or the space network if there are none.
+         */
+        public Network getRegistrarNetwork() {
+            if (registrarNetwork == null) {
+                return spaceNetwork;
+            }
+            return registrarNetwork;
+        }
+    }
+}
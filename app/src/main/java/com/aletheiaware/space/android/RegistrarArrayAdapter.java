@@ -45,8 +45,7 @@ public class RegistrarArrayAdapter extends ArrayAdapter<String> {
             @Override
             public void run() {
                 try {
-                    PoWChannel registrars = SpaceUtils.getRegistrarChannel();
-                    ChannelUtils.loadHead(registrars, cache);
+                    PoWChannel registrars = ChannelSync.get(SpaceUtils.getRegistrarChannel(), cache);
                     ChannelUtils.read(registrars.getName(), registrars.getHead(), null, cache, network, null, null, null, new RecordCallback() {
                         @Override
                         public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.aletheiaware.bc.BCProto.Block;
+import com.aletheiaware.bc.BCProto.Record;
+import com.aletheiaware.bc.BCProto.Reference;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.aletheiaware.space.utils.SpaceUtils.RemoteMiningListener;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Retries requests to remote hosts with exponential backoff and jitter.
+ *
+ * Socket failures are considered transient and retried, anything else fails immediately. Each
+ * host has a circuit breaker which opens after repeated failures; while it is open requests wait
+ * for the cooldown instead of reaching the host, then a single trial request decides whether it
+ * closes. Per host metrics track attempts, failures and latency.
+ */
+public class RetryPolicy {
+
+    public static final RetryPolicy POST = new RetryPolicy(5, 1000, 30 * 1000);
+    public static final RetryPolicy CAST = new RetryPolicy(5, 1000, 60 * 1000);
+
+    private static final int BREAKER_THRESHOLD = 5;// Consecutive failures before opening
+    private static final long BREAKER_COOLDOWN = 30 * 1000;// 30 seconds
+
+    private static final Map<String, Host> hosts = new HashMap<>();
+
+    /**
+     * Posts the record to the website's miner, retrying transient failures. Returns the reference
+     * of the mined record, or null if the miner never returned one.
+     */
+    @WorkerThread
+    public static Reference postRecord(final String website, final String channel, final Record record, final int results, final RemoteMiningListener listener) throws IOException, NoSuchAlgorithmException {
+        String host = Uri.parse(website).getHost();
+        if (host == null) {
+            host = website;
+        }
+        try {
+            return POST.execute(host, new Attempt<Reference>() {
+                @Override
+                public Reference run() throws Exception {
+                    final Reference[] result = {null};
+                    SpaceUtils.postRecord(website, channel, record, results, new RemoteMiningListener() {
+                        @Override
+                        public void onReference(Reference reference) {
+                            result[0] = reference;
+                            listener.onReference(reference);
+                        }
+
+                        @Override
+                        public void onBlock(ByteString hash, Block block) {
+                            listener.onBlock(hash, block);
+                        }
+                    });
+                    return result[0];
+                }
+            });
+        } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Returns true if the failure is worth retrying.
+     */
+    public static boolean isTransient(Throwable e) {
+        if (e instanceof UnknownHostException) {
+            // Likely offline, resolution failures are cached by HostResolver
+            return true;
+        }
+        return e instanceof SocketException || e instanceof InterruptedIOException;
+    }
+
+    private static Host getHost(String host) {
+        synchronized (hosts) {
+            Host h = hosts.get(host);
+            if (h == null) {
+                h = new Host();
+                hosts.put(host, h);
+            }
+            return h;
+        }
+    }
+
+    public interface Attempt<T> {
+        /**
+         * Makes one attempt, returning null if it completed without a result.
+         */
+        T run() throws Exception;
+    }
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns the delay before the given retry, chosen uniformly between zero and the exponential
+     * backoff so that clients failing together do not retry together.
+     */
+    public long getDelay(int attempt) {
+        long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempt - 1, 16));
+        return ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+
+    /**
+     * Runs the attempt until it returns a result, fails permanently, or runs out of attempts, in
+     * which case the last failure is thrown, or null returned if there was none.
+     */
+    @WorkerThread
+    public <T> T execute(String host, Attempt<T> attempt) throws Exception {
+        Host h = getHost(host);
+        Exception failure = null;
+        for (int i = 1; i <= maxAttempts; i++) {
+            long wait = h.acquire();
+            if (wait > 0) {
+                // Breaker open, wait for the trial request instead of failing every caller
+                failure = new ConnectException("Circuit open for " + host);
+                Log.d(SpaceUtils.TAG, host + " attempt " + i + " waiting " + wait + "ms for circuit");
+                if (i < maxAttempts && !sleep(wait + getDelay(i))) {
+                    break;
+                }
+                continue;
+            }
+            long start = System.currentTimeMillis();
+            T result = null;
+            try {
+                result = attempt.run();
+                failure = null;
+            } catch (Exception e) {
+                failure = e;
+            }
+            long latency = System.currentTimeMillis() - start;
+            if (result != null) {
+                h.onSuccess(latency);
+                Log.d(SpaceUtils.TAG, host + " succeeded in " + latency + "ms after " + i + " attempt(s)");
+                return result;
+            }
+            h.onFailure(latency);
+            if (failure != null && !isTransient(failure)) {
+                Log.e(SpaceUtils.TAG, host + " failed permanently " + h.getMetrics(), failure);
+                throw failure;
+            }
+            Log.d(SpaceUtils.TAG, host + " attempt " + i + " failed in " + latency + "ms: " + failure);
+            if (i < maxAttempts && !sleep(getDelay(i))) {
+                break;
+            }
+        }
+        Log.e(SpaceUtils.TAG, host + " gave up after " + maxAttempts + " attempts " + h.getMetrics());
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+
+    /**
+     * Sleeps for the delay, returning false if interrupted.
+     */
+    private static boolean sleep(long delay) {
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static class Host {
+
+        final Metrics metrics = new Metrics();
+        int consecutiveFailures;
+        long openedAt;
+        boolean trial;
+
+        /**
+         * Returns zero if a request may be made, or the time to wait while the breaker is open,
+         * letting a single trial request through once the cooldown has passed.
+         */
+        synchronized long acquire() {
+            if (consecutiveFailures < BREAKER_THRESHOLD) {
+                return 0;
+            }
+            long remaining = openedAt + BREAKER_COOLDOWN - System.currentTimeMillis();
+            if (trial || remaining > 0) {
+                metrics.rejected++;
+                return Math.max(1, remaining);
+            }
+            trial = true;
+            return 0;
+        }
+
+        synchronized Metrics getMetrics() {
+            return new Metrics(metrics);
+        }
+
+        synchronized void onSuccess(long latency) {
+            metrics.record(latency);
+            consecutiveFailures = 0;
+            trial = false;
+        }
+
+        synchronized void onFailure(long latency) {
+            metrics.record(latency);
+            metrics.failures++;
+            consecutiveFailures++;
+            if (trial || consecutiveFailures == BREAKER_THRESHOLD) {
+                openedAt = System.currentTimeMillis();
+            }
+            trial = false;
+        }
+    }
+
+    private static class Metrics {
+
+        private long attempts;
+        private long failures;
+        private long rejected;
+        private long totalLatency;
+        private long maxLatency;
+
+        Metrics() {}
+
+        Metrics(Metrics m) {
+            attempts = m.attempts;
+            failures = m.failures;
+            rejected = m.rejected;
+            totalLatency = m.totalLatency;
+            maxLatency = m.maxLatency;
+        }
+
+        void record(long latency) {
+            attempts++;
+            totalLatency += latency;
+            maxLatency = Math.max(maxLatency, latency);
+        }
+
+        long getAverageLatency() {
+            return attempts == 0 ? 0 : totalLatency / attempts;
+        }
+
+        @Override
+        public String toString() {
+            return "attempts=" + attempts + " failures=" + failures + " rejected=" + rejected + " avg=" + getAverageLatency() + "ms max=" + maxLatency + "ms";
+        }
+    }
+}
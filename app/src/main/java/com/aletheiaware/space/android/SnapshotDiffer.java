@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import com.google.protobuf.ByteString;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Holds the immutable snapshot of keys displayed by an adapter.
+ *
+ * When the adapter's data changes a new snapshot is taken from the source and diffed against the
+ * displayed one on a background thread, and the resulting updates dispatched on the UI thread so
+ * only the changed rows are rebound. Invalidations within a frame, or while a diff is running, are
+ * coalesced into a single snapshot, and diffs are started and dispatched by the UpdateCoalescer.
+ */
+public class SnapshotDiffer<K> {
+
+    public interface Source<K> {
+        /**
+         * Returns a copy of the keys in display order.
+         */
+        @WorkerThread
+        List<K> getSnapshot();
+    }
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Returns a stable item id for a record hash.
+     */
+    public static long getId(ByteString hash) {
+        long id = 0;
+        for (int i = 0; i < 8 && i < hash.size(); i++) {
+            id = (id << 8) | (hash.byteAt(i) & 0xFF);
+        }
+        return id;
+    }
+
+    /**
+     * Returns a stable item id for a key such as an alias.
+     */
+    public static long getId(String key) {
+        // 64-bit FNV-1a
+        long id = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            id ^= key.charAt(i);
+            id *= 0x100000001b3L;
+        }
+        return id;
+    }
+
+    private final RecyclerView.Adapter<?> adapter;
+    private final Source<K> source;
+    private final Runnable start = new Runnable() {
+        @Override
+        public void run() {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    diff();
+                }
+            });
+        }
+    };
+    private volatile List<K> list = Collections.emptyList();
+    private boolean running;
+    private boolean dirty;
+    private boolean reset;
+
+    public SnapshotDiffer(RecyclerView.Adapter<?> adapter, Source<K> source) {
+        this.adapter = adapter;
+        this.source = source;
+    }
+
+    /**
+     * Schedules a new snapshot to be diffed and displayed. Safe to call from any thread.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            if (running) {
+                dirty = true;
+                return;
+            }
+            running = true;
+        }
+        UpdateCoalescer.post(start);
+    }
+
+    /**
+     * Schedules a new snapshot to be displayed without diffing, for when most rows have moved.
+     */
+    public void invalidateAll() {
+        synchronized (this) {
+            reset = true;
+        }
+        invalidate();
+    }
+
+    @WorkerThread
+    private void diff() {
+        final boolean r;
+        synchronized (this) {
+            r = reset;
+            reset = false;
+        }
+        final List<K> oldList = list;
+        final List<K> newList = Collections.unmodifiableList(source.getSnapshot());
+        final DiffUtil.DiffResult result;
+        if (r || oldList.isEmpty() || newList.isEmpty()) {
+            // Adapter shows an empty view in place of an empty list
+            result = null;
+        } else {
+            result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return oldList.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return newList.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                    return oldList.get(oldPosition).equals(newList.get(newPosition));
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                    // Records are immutable so the same key always has the same content
+                    return true;
+                }
+            }, false);
+        }
+        UpdateCoalescer.post(new Runnable() {
+            @Override
+            public void run() {
+                apply(newList, result);
+            }
+        });
+    }
+
+    @UiThread
+    private void apply(List<K> newList, DiffUtil.DiffResult result) {
+        list = newList;
+        if (result == null) {
+            adapter.notifyDataSetChanged();
+        } else {
+            result.dispatchUpdatesTo(adapter);
+        }
+        synchronized (this) {
+            if (!dirty) {
+                running = false;
+                return;
+            }
+            dirty = false;
+        }
+        UpdateCoalescer.post(start);
+    }
+
+    /**
+     * Returns the displayed snapshot.
+     */
+    @UiThread
+    public List<K> getList() {
+        return list;
+    }
+
+    @UiThread
+    public K get(int position) {
+        return list.get(position);
+    }
+
+    @UiThread
+    public int size() {
+        return list.size();
+    }
+
+    @UiThread
+    public boolean isEmpty() {
+        return list.isEmpty();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.app.Activity;
+import android.util.Log;
+import android.widget.TextView;
+
+import com.aletheiaware.space.android.utils.SpaceAndroidUtils;
+import com.aletheiaware.space.utils.SpaceUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
+
+/**
+ * Shows the current stage of each of a set of concurrent tasks, one per line, along with how long
+ * it has taken. Stage timings are also logged.
+ */
+public class StageProgress {
+
+    private final Activity activity;
+    private final TextView status;
+    private final Map<Integer, Task> tasks = new LinkedHashMap<>();
+
+    public StageProgress(Activity activity, @Nullable TextView status) {
+        this.activity = activity;
+        this.status = status;
+    }
+
+    /**
+     * Starts the next stage of the task, ending its previous stage.
+     */
+    public void begin(@StringRes int task, @StringRes int stage) {
+        long now = System.currentTimeMillis();
+        synchronized (tasks) {
+            Task t = tasks.get(task);
+            if (t == null) {
+                t = new Task(now);
+                tasks.put(task, t);
+            } else {
+                log(task, t, now);
+            }
+            t.stage = stage;
+            t.stageStart = now;
+        }
+        update();
+    }
+
+    /**
+     * Ends the task's last stage.
+     */
+    public void end(@StringRes int task) {
+        long now = System.currentTimeMillis();
+        synchronized (tasks) {
+            Task t = tasks.get(task);
+            if (t == null) {
+                return;
+            }
+            log(task, t, now);
+            t.end = now;
+            Log.d(SpaceUtils.TAG, activity.getString(task) + " took " + (t.end - t.start) + "ms");
+        }
+        update();
+    }
+
+    private void log(int task, Task t, long now) {
+        if (t.stage != 0) {
+            Log.d(SpaceUtils.TAG, activity.getString(task) + ": " + activity.getString(t.stage) + " took " + (now - t.stageStart) + "ms");
+        }
+    }
+
+    private void update() {
+        StringBuilder sb = new StringBuilder();
+        long now = System.currentTimeMillis();
+        synchronized (tasks) {
+            for (Map.Entry<Integer, Task> e : tasks.entrySet()) {
+                Task t = e.getValue();
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                if (t.end > 0) {
+                    sb.append(activity.getString(R.string.stage_done, activity.getString(e.getKey()), (t.end - t.start) / 1000f));
+                } else {
+                    sb.append(activity.getString(R.string.stage_running, activity.getString(t.stage), (now - t.start) / 1000f));
+                }
+            }
+        }
+        SpaceAndroidUtils.setStatus(activity, status, sb.toString());
+    }
+
+    private static class Task {
+        final long start;
+        long end;
+        int stage;
+        long stageStart;
+
+        Task(long start) {
+            this.start = start;
+        }
+    }
+}
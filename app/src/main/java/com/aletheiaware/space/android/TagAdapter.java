@@ -20,7 +20,6 @@ import android.app.Activity;
 import android.widget.ArrayAdapter;
 import android.widget.Filterable;
 
-import com.aletheiaware.bc.BC;
 import com.aletheiaware.bc.Cache;
 import com.aletheiaware.bc.Channel.RecordCallback;
 import com.aletheiaware.bc.BCProto.Block;
@@ -28,60 +27,82 @@ import com.aletheiaware.bc.BCProto.BlockEntry;
 import com.aletheiaware.bc.Network;
 import com.aletheiaware.bc.PoWChannel;
 import com.aletheiaware.bc.utils.ChannelUtils;
-import com.aletheiaware.common.utils.CommonUtils;
 import com.aletheiaware.space.SpaceProto.Tag;
-import com.aletheiaware.space.utils.SpaceUtils;
+import com.aletheiaware.space.android.utils.SpaceAndroidUtils;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 import java.io.IOException;
 import java.security.KeyPair;
-import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
 import java.util.Set;
 
-public class TagAdapter extends ArrayAdapter<String> implements Filterable {
+import androidx.annotation.WorkerThread;
 
-    public TagAdapter(final Activity activity, final String alias, final KeyPair keys, final ByteString metaRecordHash, final Cache cache, final Network network) {
+/**
+ * Suggests the tags already applied to a file, re-reading them whenever the tag channel's head
+ * moves.
+ */
+public class TagAdapter extends ArrayAdapter<String> implements Filterable, ChannelSync.HeadListener {
+
+    private final Activity activity;
+    private final String alias;
+    private final KeyPair keys;
+    private final Cache cache;
+    private final Network network;
+    private final PoWChannel channel;
+
+    public TagAdapter(Activity activity, String alias, KeyPair keys, ByteString metaRecordHash, final Cache cache, final Network network) {
         super(activity, android.R.layout.simple_dropdown_item_1line);
+        this.activity = activity;
+        this.alias = alias;
+        this.keys = keys;
+        this.cache = cache;
+        this.network = network;
+        this.channel = SpaceAndroidUtils.getTagChannel(metaRecordHash);
+        ChannelSync.subscribe(channel.getName(), this);
         new Thread() {
             @Override
             public void run() {
-                PoWChannel tags = new PoWChannel(SpaceUtils.SPACE_PREFIX_TAG + new String(CommonUtils.encodeBase64URL(metaRecordHash.toByteArray())), BC.THRESHOLD_STANDARD);
-                ChannelUtils.loadHead(tags, cache);
-                try {
-                    ChannelUtils.pull(tags, cache, network);
-                } catch (NoSuchAlgorithmException e) {
-                    /* Ignored */
-                    e.printStackTrace();
-                }
-                final Set<String> ts = new HashSet<>();
-                try {
-                    ChannelUtils.read(tags.getName(), tags.getHead(), null, cache, network, alias, keys, null, new RecordCallback() {
-                        @Override
-                        public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
-                            try {
-                                Tag t = Tag.newBuilder().mergeFrom(payload).build();
-                                ts.add(t.getValue());
-                            } catch (InvalidProtocolBufferException e) {
-                                /* Ignored */
-                                e.printStackTrace();
-                            }
-                            return true;
-                        }
-                    });
-                } catch (IOException e) {
-                    /* Ignored */
-                    e.printStackTrace();
+                load(ChannelSync.sync(channel, cache, network));
+            }
+        }.start();
+    }
+
+    @Override
+    public void onHead(String name, ByteString head) {
+        load(ChannelSync.get(channel, cache));
+    }
+
+    @WorkerThread
+    private void load(PoWChannel tags) {
+        final Set<String> ts = new HashSet<>();
+        try {
+            ChannelUtils.read(tags.getName(), tags.getHead(), null, cache, network, alias, keys, null, new RecordCallback() {
+                @Override
+                public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
+                    try {
+                        Tag t = Tag.newBuilder().mergeFrom(payload).build();
+                        ts.add(t.getValue());
+                    } catch (InvalidProtocolBufferException e) {
+                        /* Ignored */
+                        e.printStackTrace();
+                    }
+                    return true;
                 }
+            });
+        } catch (IOException e) {
+            /* Ignored */
+            e.printStackTrace();
+        }
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                setNotifyOnChange(false);
+                clear();
                 addAll(ts);
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        notifyDataSetChanged();
-                    }
-                });
+                notifyDataSetChanged();
             }
-        }.start();
+        });
     }
 }
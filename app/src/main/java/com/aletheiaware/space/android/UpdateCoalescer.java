@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import androidx.annotation.UiThread;
+
+/**
+ * Runs UI updates at the start of the next frame.
+ *
+ * An update posted several times before the frame runs is only run once, so records streaming in
+ * from a background thread cause at most one adapter update per frame. Updates run in the order
+ * they were first posted until FRAME_BUDGET is used up, the rest are left for the next frame.
+ */
+public class UpdateCoalescer {
+
+    private static final long FRAME_BUDGET = 8 * 1000 * 1000;// 8 milliseconds
+
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private static final Set<Runnable> updates = new LinkedHashSet<>();
+    private static boolean scheduled;
+
+    private static final Choreographer.FrameCallback callback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            runUpdates();
+        }
+    };
+
+    private static final Runnable schedule = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(callback);
+        }
+    };
+
+    private UpdateCoalescer() {}
+
+    /**
+     * Schedules the update to run on the UI thread at the start of the next frame. Safe to call
+     * from any thread.
+     */
+    public static void post(Runnable update) {
+        synchronized (updates) {
+            updates.add(update);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        handler.post(schedule);
+    }
+
+    @UiThread
+    private static void runUpdates() {
+        long start = System.nanoTime();
+        while (true) {
+            Runnable update;
+            synchronized (updates) {
+                Iterator<Runnable> iterator = updates.iterator();
+                if (!iterator.hasNext()) {
+                    scheduled = false;
+                    return;
+                }
+                if (System.nanoTime() - start > FRAME_BUDGET) {
+                    // Leave remaining updates for the next frame
+                    Choreographer.getInstance().postFrameCallback(callback);
+                    return;
+                }
+                update = iterator.next();
+                iterator.remove();
+            }
+            update.run();
+        }
+    }
+}
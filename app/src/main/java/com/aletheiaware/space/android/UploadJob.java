@@ -0,0 +1,538 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.aletheiaware.bc.BCProto.Block;
+import com.aletheiaware.bc.BCProto.Record;
+import com.aletheiaware.bc.BCProto.Reference;
+import com.aletheiaware.bc.Cache;
+import com.aletheiaware.bc.Network;
+import com.aletheiaware.bc.utils.BCUtils;
+import com.aletheiaware.bc.utils.BCUtils.RecordCallback;
+import com.aletheiaware.common.utils.CommonUtils;
+import com.aletheiaware.space.SpaceProto.Meta;
+import com.aletheiaware.space.SpaceProto.Miner;
+import com.aletheiaware.space.SpaceProto.Preview;
+import com.aletheiaware.space.SpaceProto.Registrar;
+import com.aletheiaware.space.utils.SpaceUtils;
+import com.aletheiaware.space.utils.SpaceUtils.RemoteMiningListener;
+import com.google.protobuf.ByteString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Upload persisted on disk so it can be resumed after the activity or process dies.
+ *
+ * Each job directory holds the job description, a copy of the document, and a journal of the
+ * references acknowledged by the miner, as: index, reference length, reference. File chunks use
+ * their index, the meta uses META_INDEX and each preview counts down from PREVIEW_INDEX. When
+ * resumed, the document is encrypted again but only chunks missing from the journal are posted.
+ * A job which fails MAX_ATTEMPTS times is abandoned; it is kept on disk but no longer resumed
+ * until the user retries or discards it.
+ */
+public class UploadJob {
+
+    public interface UploadListener {
+        void onProgress(UploadJob job, int chunks);
+    }
+
+    private static final int UPLOAD_WINDOW = 4;// Chunks posted while the next is read and encrypted
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int META_INDEX = -1;
+    private static final int PREVIEW_INDEX = -2;
+
+    private static final String JOB_FILE = "job";
+    private static final String DATA_FILE = "data";
+    private static final String JOURNAL_FILE = "journal";
+    private static final String ATTEMPTS_FILE = "attempts";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long TEMP_EXPIRY = 24 * 60 * 60 * 1000;// 1 day
+
+    public static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), "upload");
+    }
+
+    /**
+     * Returns the pending jobs which have not been abandoned, oldest first.
+     */
+    @WorkerThread
+    public static List<UploadJob> getPending(Context context) {
+        List<UploadJob> jobs = new ArrayList<>();
+        File[] directories = getDirectory(context).listFiles();
+        if (directories != null) {
+            Arrays.sort(directories, new Comparator<File>() {
+                @Override
+                public int compare(File f1, File f2) {
+                    return f1.getName().compareTo(f2.getName());
+                }
+            });
+            for (File d : directories) {
+                if (d.getName().endsWith(TEMP_SUFFIX)) {
+                    if (System.currentTimeMillis() - d.lastModified() > TEMP_EXPIRY) {
+                        // Left behind by a process which died while creating the job
+                        delete(d);
+                    }
+                    continue;
+                }
+                try {
+                    UploadJob job = load(d);
+                    if (!job.isAbandoned()) {
+                        jobs.add(job);
+                    }
+                } catch (IOException e) {
+                    Log.e(SpaceUtils.TAG, "Discarding unreadable upload " + d, e);
+                    delete(d);
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Resets the failed attempts of the given abandoned job so it is resumed again.
+     */
+    @WorkerThread
+    public static void retry(Context context, String id) {
+        File file = new File(new File(getDirectory(context), id), ATTEMPTS_FILE);
+        if (file.exists() && !file.delete()) {
+            Log.e(SpaceUtils.TAG, "Error deleting " + file);
+        }
+    }
+
+    /**
+     * Deletes the given job along with its copy of the document.
+     */
+    @WorkerThread
+    public static void discard(Context context, String id) {
+        File directory = new File(getDirectory(context), id);
+        if (directory.exists()) {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Records a new job, copying the document so it remains readable after the source is gone.
+     */
+    @WorkerThread
+    public static UploadJob create(Context context, String alias, Miner miner, Map<String, Registrar> registrars, String name, String type, List<Preview> previews, InputStream in) throws IOException {
+        String id = System.currentTimeMillis() + "-" + System.nanoTime();
+        // Written under a temporary name so a partially created job is never resumed
+        File temp = new File(getDirectory(context), id + TEMP_SUFFIX);
+        if (!temp.mkdirs()) {
+            throw new IOException("Error making upload directory");
+        }
+        try {
+            try (OutputStream out = new FileOutputStream(new File(temp, DATA_FILE))) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            try (FileOutputStream fos = new FileOutputStream(new File(temp, JOB_FILE))) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                out.writeUTF(alias);
+                out.writeUTF(name);
+                out.writeUTF(type);
+                writeBytes(out, miner.toByteArray());
+                out.writeInt(registrars.size());
+                for (Map.Entry<String, Registrar> e : registrars.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    writeBytes(out, e.getValue().toByteArray());
+                }
+                // Each preview is preceded by true and the list ends with false
+                for (Preview p : previews) {
+                    out.writeBoolean(true);
+                    writeBytes(out, p.toByteArray());
+                }
+                out.writeBoolean(false);
+                out.flush();
+                fos.getFD().sync();
+            }
+            File directory = new File(getDirectory(context), id);
+            if (!temp.renameTo(directory)) {
+                throw new IOException("Error writing upload job");
+            }
+            return new UploadJob(directory, alias, miner, registrars, name, type, previews);
+        } catch (IOException e) {
+            delete(temp);
+            throw e;
+        }
+    }
+
+    private static UploadJob load(File directory) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(directory, JOB_FILE))))) {
+            String alias = in.readUTF();
+            String name = in.readUTF();
+            String type = in.readUTF();
+            Miner miner = Miner.parseFrom(readBytes(in));
+            Map<String, Registrar> registrars = new HashMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                registrars.put(key, Registrar.parseFrom(readBytes(in)));
+            }
+            List<Preview> previews = new ArrayList<>();
+            while (in.readBoolean()) {
+                previews.add(Preview.parseFrom(readBytes(in)));
+            }
+            return new UploadJob(directory, alias, miner, registrars, name, type, previews);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.delete()) {
+                    Log.e(SpaceUtils.TAG, "Error deleting " + f);
+                }
+            }
+        }
+        if (!directory.delete()) {
+            Log.e(SpaceUtils.TAG, "Error deleting " + directory);
+        }
+    }
+
+    private final File directory;
+    private final String alias;
+    private final Miner miner;
+    private final Map<String, Registrar> registrars;
+    private final String name;
+    private final String type;
+    private final List<Preview> previews;
+    private final Map<Integer, Reference> acknowledged = new HashMap<>();
+
+    private UploadJob(File directory, String alias, Miner miner, Map<String, Registrar> registrars, String name, String type, List<Preview> previews) {
+        this.directory = directory;
+        this.alias = alias;
+        this.miner = miner;
+        this.registrars = registrars;
+        this.name = name;
+        this.type = type;
+        this.previews = previews;
+    }
+
+    public String getId() {
+        return directory.getName();
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, Registrar> getRegistrars() {
+        return registrars;
+    }
+
+    private File getFile(String name) {
+        return new File(directory, name);
+    }
+
+    /**
+     * Returns true if the job has failed MAX_ATTEMPTS times and will not be resumed.
+     */
+    @WorkerThread
+    public boolean isAbandoned() {
+        return getAttempts() >= MAX_ATTEMPTS;
+    }
+
+    /**
+     * Posts the remaining records and returns true once the upload has completed, in which case the
+     * job is deleted. Returns false if the upload failed, leaving the job to be retried unless it
+     * has now been abandoned. Runs interrupted by the service stopping are not counted as failures.
+     */
+    @WorkerThread
+    public boolean run(final KeyPair keys, final Cache cache, final Network network, final UploadListener uploadListener) throws BadPaddingException, IOException, IllegalBlockSizeException, InvalidAlgorithmParameterException, InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, SignatureException {
+        boolean success = false;
+        try {
+            success = upload(keys, cache, network, uploadListener);
+            return success;
+        } finally {
+            if (!success && !Thread.currentThread().isInterrupted()) {
+                recordFailure();
+            }
+        }
+    }
+
+    private boolean upload(final KeyPair keys, final Cache cache, final Network network, final UploadListener uploadListener) throws BadPaddingException, IOException, IllegalBlockSizeException, InvalidAlgorithmParameterException, InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, SignatureException {
+        readJournal();
+        Log.d(SpaceUtils.TAG, "Resuming upload " + getId() + " with " + acknowledged.size() + " acknowledged records");
+        final String website = "https://" + miner.getMerchant().getDomain();
+        final Map<String, PublicKey> acl = new HashMap<>();
+        acl.put(alias, keys.getPublic());
+        final String minerAlias = miner.getMerchant().getAlias();
+        final RemoteMiningListener listener = new RemoteMiningListener() {
+            @Override
+            public void onReference(Reference reference) {
+                Log.d(SpaceUtils.TAG, "Mined Reference: " + reference);
+            }
+
+            @Override
+            public void onBlock(ByteString hash, Block block) {
+                Log.d(SpaceUtils.TAG, "Mined Block: " + block);
+                // Write block to cache
+                synchronized (cache) {
+                    cache.putBlock(hash, block);
+                }
+                for (String registrarAlias : registrars.keySet()) {
+                    if (!registrarAlias.equals(minerAlias)) {
+                        Registrar registrar = registrars.get(registrarAlias);
+                        if (registrar != null) {
+                            BroadcastQueue.cast(registrar.getMerchant().getDomain(), block.getChannelName(), cache, network, hash, block);
+                        }
+                    }
+                }
+            }
+        };
+        // Chunks are posted concurrently while the next chunk is read and encrypted
+        final ExecutorService posters = Executors.newFixedThreadPool(UPLOAD_WINDOW);
+        final Semaphore window = new Semaphore(UPLOAD_WINDOW);
+        final List<Future<Reference>> chunks = new ArrayList<>();
+        final int[] index = {0};
+        long size;
+        try (InputStream in = new FileInputStream(getFile(DATA_FILE))) {
+            size = BCUtils.createEntries(alias, keys, acl, new ArrayList<Reference>(), in, new RecordCallback() {
+                @Override
+                public void onRecord(final Record record) {
+                    final int i = index[0]++;
+                    final Reference reference = getAcknowledged(i);
+                    if (reference != null) {
+                        // Posted before the upload was interrupted
+                        chunks.add(posters.submit(new Callable<Reference>() {
+                            @Override
+                            public Reference call() {
+                                return reference;
+                            }
+                        }));
+                        return;
+                    }
+                    window.acquireUninterruptibly();
+                    chunks.add(posters.submit(new Callable<Reference>() {
+                        @Override
+                        public Reference call() throws IOException, NoSuchAlgorithmException {
+                            try {
+                                Reference r = RetryPolicy.postRecord(website, "file", record, 1, listener);
+                                if (r != null) {
+                                    acknowledge(i, r);
+                                    uploadListener.onProgress(UploadJob.this, getAcknowledgedCount());
+                                }
+                                return r;
+                            } finally {
+                                window.release();
+                            }
+                        }
+                    }));
+                }
+            });
+        } finally {
+            posters.shutdown();
+        }
+        // Collect references in chunk order
+        final List<Reference> metaReferences = new ArrayList<>();
+        try {
+            for (Future<Reference> chunk : chunks) {
+                Reference fileReference = chunk.get();
+                if (fileReference == null) {
+                    Log.e(SpaceUtils.TAG, "Failed to post file record");
+                    return false;
+                }
+                metaReferences.add(fileReference);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Log.e(SpaceUtils.TAG, "Failed to post file record", e.getCause());
+            return false;
+        } finally {
+            posters.shutdownNow();
+        }
+        Reference metaReference = getAcknowledged(META_INDEX);
+        if (metaReference == null) {
+            final Meta meta = Meta.newBuilder()
+                    .setName(name)
+                    .setType(type)
+                    .setSize(size)
+                    .build();
+            Log.d(SpaceUtils.TAG, "Meta " + meta);
+            Record metaRecord = BCUtils.createRecord(alias, keys, acl, metaReferences, meta.toByteArray());
+            metaReference = RetryPolicy.postRecord(website, "meta", metaRecord, 1, listener);
+            if (metaReference == null) {
+                Log.e(SpaceUtils.TAG, "Failed to post meta record");
+                return false;
+            }
+            acknowledge(META_INDEX, metaReference);
+        }
+        Log.d(SpaceUtils.TAG, "Uploaded Meta " + new String(CommonUtils.encodeBase64URL(metaReference.getRecordHash().toByteArray())));
+        for (int i = 0; i < previews.size(); i++) {
+            if (getAcknowledged(PREVIEW_INDEX - i) != null) {
+                continue;
+            }
+            Preview preview = previews.get(i);
+            Log.d(SpaceUtils.TAG, "Preview " + preview.getType() + " " + preview.getWidth() + "x" + preview.getHeight() + " " + preview.getData().size() + " bytes");
+            final List<Reference> previewReferences = new ArrayList<>();
+            previewReferences.add(Reference.newBuilder()
+                    .setTimestamp(metaReference.getTimestamp())
+                    .setChannelName(metaReference.getChannelName())
+                    .setRecordHash(metaReference.getRecordHash())
+                    .build());
+            Record previewRecord = BCUtils.createRecord(alias, keys, acl, previewReferences, preview.toByteArray());
+            Reference previewReference = RetryPolicy.postRecord(website, "preview", previewRecord, 1, listener);
+            if (previewReference == null) {
+                Log.e(SpaceUtils.TAG, "Failed to post preview record");
+                return false;
+            }
+            acknowledge(PREVIEW_INDEX - i, previewReference);
+        }
+        delete(directory);
+        // Pull the new head so subscribers show the upload
+        ChannelSync.refresh(SpaceUtils.getMetaChannel(alias), cache, network);
+        return true;
+    }
+
+    private int getAttempts() {
+        File file = getFile(ATTEMPTS_FILE);
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                return in.readInt();
+            } catch (EOFException e) {
+                /* Ignored - interrupted write */
+            } catch (IOException e) {
+                /* Ignored */
+                e.printStackTrace();
+            }
+        }
+        return 0;
+    }
+
+    private void recordFailure() {
+        int attempts = getAttempts() + 1;
+        Log.d(SpaceUtils.TAG, "Upload " + getId() + " failed attempt " + attempts + " of " + MAX_ATTEMPTS);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(getFile(ATTEMPTS_FILE)))) {
+            out.writeInt(attempts);
+        } catch (IOException e) {
+            /* Ignored */
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized Reference getAcknowledged(int index) {
+        return acknowledged.get(index);
+    }
+
+    private synchronized int getAcknowledgedCount() {
+        int count = 0;
+        for (Integer i : acknowledged.keySet()) {
+            if (i >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private synchronized void readJournal() throws IOException {
+        acknowledged.clear();
+        File journal = getFile(JOURNAL_FILE);
+        if (!journal.exists()) {
+            return;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+            while (true) {
+                int index = in.readInt();
+                byte[] reference = readBytes(in);
+                acknowledged.put(index, Reference.parseFrom(reference));
+                valid += 4 + 4 + reference.length;
+            }
+        } catch (EOFException e) {
+            /* Ignored - end of journal */
+        }
+        if (valid < journal.length()) {
+            // Drop partially written entry left by an interrupted append
+            try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+    }
+
+    private synchronized void acknowledge(int index, Reference reference) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(getFile(JOURNAL_FILE), true)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(index);
+            writeBytes(out, reference.toByteArray());
+            out.flush();
+            fos.getFD().sync();
+        }
+        acknowledged.put(index, reference);
+    }
+}
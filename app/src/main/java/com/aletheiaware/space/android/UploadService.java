@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 Aletheia Ware LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aletheiaware.space.android;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+
+import com.aletheiaware.bc.Cache;
+import com.aletheiaware.bc.android.utils.BCAndroidUtils;
+import com.aletheiaware.space.android.utils.SpaceAndroidUtils;
+import com.aletheiaware.space.utils.SpaceUtils;
+
+import java.security.KeyPair;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.content.ContextCompat;
+
+/**
+ * Foreground service which runs pending UploadJobs one at a time.
+ *
+ * Jobs need the account's keys, so the service only runs while the app is unlocked; jobs left
+ * pending when the process dies are resumed the next time it is started. Jobs which are abandoned
+ * after failing repeatedly are kept, and the user is notified so they can retry or discard them.
+ */
+public class UploadService extends Service {
+
+    private static final String CHANNEL_ID = "upload";
+    private static final int PROGRESS_NOTIFICATION_ID = 1;
+    private static final int RESULT_NOTIFICATION_ID = 2;
+    private static final int ABANDONED_NOTIFICATION_ID = 3;
+
+    private static final String ACTION_RETRY = "com.aletheiaware.space.android.action.RETRY_UPLOAD";
+    private static final String ACTION_DISCARD = "com.aletheiaware.space.android.action.DISCARD_UPLOAD";
+    private static final String JOB_EXTRA = "job";
+
+    /**
+     * Starts the service if there are pending jobs.
+     */
+    @WorkerThread
+    public static void start(Context context) {
+        if (UploadJob.getPending(context).isEmpty()) {
+            return;
+        }
+        ContextCompat.startForegroundService(context, new Intent(context, UploadService.class));
+    }
+
+    private final Set<String> queued = new HashSet<>();
+    private int scans;
+    private ExecutorService executor;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, getString(R.string.upload_channel_name), NotificationManager.IMPORTANCE_LOW);
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            if (manager != null) {
+                manager.createNotificationChannel(channel);
+            }
+        }
+        startForeground(PROGRESS_NOTIFICATION_ID, createNotification(getString(R.string.upload_preparing)));
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    public int onStartCommand(final Intent intent, int flags, int startId) {
+        synchronized (queued) {
+            scans++;
+        }
+        // Listing jobs reads the disk, so scan on the worker
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (intent != null && intent.getAction() != null) {
+                        String id = intent.getStringExtra(JOB_EXTRA);
+                        NotificationManagerCompat.from(UploadService.this).cancel(id, ABANDONED_NOTIFICATION_ID);
+                        if (ACTION_RETRY.equals(intent.getAction())) {
+                            UploadJob.retry(UploadService.this, id);
+                        } else if (ACTION_DISCARD.equals(intent.getAction())) {
+                            UploadJob.discard(UploadService.this, id);
+                        }
+                    }
+                    scan();
+                } finally {
+                    synchronized (queued) {
+                        scans--;
+                        stopIfIdle();
+                    }
+                }
+            }
+        });
+        return START_NOT_STICKY;
+    }
+
+    @WorkerThread
+    private void scan() {
+        if (!BCAndroidUtils.isInitialized()) {
+            // Keys unavailable, jobs resume when the app is next unlocked
+            Log.d(SpaceUtils.TAG, "Deferring uploads until unlocked");
+            return;
+        }
+        final String alias = BCAndroidUtils.getAlias();
+        final KeyPair keys = BCAndroidUtils.getKeyPair();
+        final Cache cache = BCAndroidUtils.getCache();
+        for (final UploadJob job : UploadJob.getPending(this)) {
+            synchronized (queued) {
+                if (!job.getAlias().equals(alias) || !queued.add(job.getId())) {
+                    continue;
+                }
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runJob(job, keys, cache);
+                }
+            });
+        }
+    }
+
+    private void stopIfIdle() {
+        if (queued.isEmpty() && scans == 0) {
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+    @WorkerThread
+    private void runJob(UploadJob job, KeyPair keys, Cache cache) {
+        final String name = job.getName();
+        notifyProgress(getString(R.string.upload_uploading, name));
+        boolean success = false;
+        try {
+            success = job.run(keys, cache, SpaceAndroidUtils.getRegistrarNetwork(job.getRegistrars()), new UploadJob.UploadListener() {
+                @Override
+                public void onProgress(UploadJob job, int chunks) {
+                    notifyProgress(getResources().getQuantityString(R.plurals.upload_chunks, chunks, name, chunks));
+                }
+            });
+        } catch (Exception e) {
+            Log.e(SpaceUtils.TAG, "Failed to upload " + name, e);
+        }
+        if (!success && job.isAbandoned()) {
+            notifyAbandoned(job);
+        } else {
+            NotificationManagerCompat.from(this).notify(RESULT_NOTIFICATION_ID, new NotificationCompat.Builder(this, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.cloud_upload)
+                    .setContentTitle(getString(success ? R.string.upload_complete : R.string.upload_failed, name))
+                    .setAutoCancel(true)
+                    .build());
+        }
+        synchronized (queued) {
+            queued.remove(job.getId());
+            stopIfIdle();
+        }
+    }
+
+    private void notifyAbandoned(UploadJob job) {
+        String id = job.getId();
+        Log.e(SpaceUtils.TAG, "Abandoned upload " + id);
+        NotificationManagerCompat.from(this).notify(id, ABANDONED_NOTIFICATION_ID, new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.cloud_upload)
+                .setContentTitle(getString(R.string.upload_abandoned, job.getName()))
+                .setContentText(getString(R.string.upload_abandoned_text))
+                .addAction(0, getString(R.string.upload_retry_action), createActionIntent(ACTION_RETRY, id))
+                .addAction(0, getString(R.string.upload_discard_action), createActionIntent(ACTION_DISCARD, id))
+                .build());
+    }
+
+    private PendingIntent createActionIntent(String action, String id) {
+        Intent intent = new Intent(this, UploadService.class);
+        intent.setAction(action);
+        intent.putExtra(JOB_EXTRA, id);
+        // Request code distinguishes the intents of each job and action
+        int requestCode = (action + id).hashCode();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return PendingIntent.getForegroundService(this, requestCode, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+        return PendingIntent.getService(this, requestCode, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private void notifyProgress(String text) {
+        NotificationManagerCompat.from(this).notify(PROGRESS_NOTIFICATION_ID, createNotification(text));
+    }
+
+    private Notification createNotification(String text) {
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.cloud_upload)
+                .setContentTitle(getString(R.string.title_dialog_mining))
+                .setContentText(text)
+                .setProgress(0, 0, true)
+                .setOngoing(true)
+                .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        executor.shutdownNow();
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -42,10 +42,20 @@ public abstract class UsageRecordAdapter extends RecyclerView.Adapter<UsageRecor
     private final Map<ByteString, UsageRecord> usageRecordMap = new HashMap<>();
     private final Map<ByteString, Long> timestamps = new HashMap<>();
     private final List<ByteString> sorted = new ArrayList<>();
+    private final SnapshotDiffer<ByteString> differ;
 
     public UsageRecordAdapter(Activity activity) {
         this.activity = activity;
         inflater = activity.getLayoutInflater();
+        differ = new SnapshotDiffer<>(this, new SnapshotDiffer.Source<ByteString>() {
+            @Override
+            public List<ByteString> getSnapshot() {
+                synchronized (UsageRecordAdapter.this) {
+                    return new ArrayList<>(sorted);
+                }
+            }
+        });
+        setHasStableIds(true);
     }
 
     public synchronized void addUsageRecord(ByteString recordHash, long timestamp, UsageRecord usageRecord) {
@@ -55,12 +65,7 @@ public abstract class UsageRecordAdapter extends RecyclerView.Adapter<UsageRecor
         if (usageRecordMap.put(recordHash, usageRecord) == null) {
             sorted.add(recordHash);// Only add if new
             timestamps.put(recordHash, timestamp);
-            activity.runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    notifyDataSetChanged();
-                }
-            });
+            differ.invalidate();
         }
     }
 
@@ -86,10 +91,10 @@ public abstract class UsageRecordAdapter extends RecyclerView.Adapter<UsageRecor
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        if (sorted.isEmpty()) {
+        if (differ.isEmpty()) {
             holder.setEmptyView();
         } else {
-            final ByteString hash = sorted.get(position);
+            final ByteString hash = differ.get(position);
             Long time = timestamps.get(hash);
             UsageRecord usageRecord = usageRecordMap.get(hash);
             if (time != null && usageRecord != null) {
@@ -98,17 +103,25 @@ public abstract class UsageRecordAdapter extends RecyclerView.Adapter<UsageRecor
         }
     }
 
+    @Override
+    public long getItemId(int position) {
+        if (differ.isEmpty()) {
+            return RecyclerView.NO_ID;// For empty view
+        }
+        return SnapshotDiffer.getId(differ.get(position));
+    }
+
     @Override
     public int getItemCount() {
-        if (sorted.isEmpty()) {
+        if (differ.isEmpty()) {
             return 1;// For empty view
         }
-        return sorted.size();
+        return differ.size();
     }
 
     public abstract void onSelection(ByteString recordHash, UsageRecord usageRecord);
 
-    public boolean isEmpty() {
+    public synchronized boolean isEmpty() {
         return sorted.isEmpty();
     }
 
@@ -21,6 +21,7 @@ import android.app.Activity;
 import com.aletheiaware.space.SpaceProto.Preview;
 
 import java.io.InputStream;
+import java.util.List;
 
 import androidx.fragment.app.Fragment;
 
@@ -34,6 +35,9 @@ public abstract class ContentFragment extends Fragment {
 
     public abstract InputStream getInputStream(Activity parent);
 
-    public abstract Preview getPreview(Activity parent);
+    /**
+     * Returns the previews to upload with the content, which may be empty.
+     */
+    public abstract List<Preview> getPreviews(Activity parent);
 
 }
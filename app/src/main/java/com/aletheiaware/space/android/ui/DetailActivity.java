@@ -42,7 +42,6 @@ import com.aletheiaware.bc.Cache;
 import com.aletheiaware.bc.Channel.RecordCallback;
 import com.aletheiaware.bc.Network;
 import com.aletheiaware.bc.PoWChannel;
-import com.aletheiaware.bc.TCPNetwork;
 import com.aletheiaware.bc.android.ui.AccessActivity;
 import com.aletheiaware.bc.android.utils.BCAndroidUtils;
 import com.aletheiaware.bc.utils.BCUtils;
@@ -56,9 +55,16 @@ import com.aletheiaware.space.SpaceProto.Registrar;
 import com.aletheiaware.space.SpaceProto.Share;
 import com.aletheiaware.space.SpaceProto.Tag;
 import com.aletheiaware.space.android.AliasArrayAdapter;
+import com.aletheiaware.space.android.BroadcastQueue;
+import com.aletheiaware.space.android.ChannelSync;
+import com.aletheiaware.space.android.DocumentProvider;
+import com.aletheiaware.space.android.DownloadStore;
 import com.aletheiaware.space.android.MetaLoader;
 import com.aletheiaware.space.android.MinerArrayAdapter;
+import com.aletheiaware.space.android.ProviderResolver;
+import com.aletheiaware.space.android.ProviderResolver.Providers;
 import com.aletheiaware.space.android.R;
+import com.aletheiaware.space.android.RetryPolicy;
 import com.aletheiaware.space.android.TagAdapter;
 import com.aletheiaware.space.android.utils.SpaceAndroidUtils;
 import com.aletheiaware.space.utils.SpaceUtils;
@@ -68,10 +74,8 @@ import com.google.protobuf.ByteString;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.net.UnknownHostException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
@@ -155,10 +159,11 @@ public class DetailActivity extends AppCompatActivity {
                         @Override
                         public void run() {
                             try {
-                                spaceNetwork = SpaceAndroidUtils.getSpaceNetwork();
-                                registrations = SpaceAndroidUtils.getRegistrations(alias, keys, cache, spaceNetwork);
-                                registrars = SpaceAndroidUtils.getRegistrars(registrations.keySet(), cache, spaceNetwork);
-                                registrarNetwork = SpaceAndroidUtils.getRegistrarNetwork(registrars);
+                                Providers providers = ProviderResolver.get(alias, keys, cache);
+                                spaceNetwork = providers.getSpaceNetwork();
+                                registrations = providers.getRegistrations();
+                                registrars = providers.getRegistrars();
+                                registrarNetwork = providers.getRegistrarNetwork();
                                 loader = new MetaLoader(alias, keys, cache, registrarNetwork, metaRecordHashByteString, shared[0]) {
                                     @Override
                                     public void onMetaLoaded() {
@@ -180,6 +185,14 @@ public class DetailActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        if (loader != null) {
+            DocumentProvider.unregister(loader);
+        }
+        super.onDestroy();
+    }
+
     @WorkerThread
     private void loadUI() {
         if (loader == null) {
@@ -197,9 +210,32 @@ public class DetailActivity extends AppCompatActivity {
         File f = new File(file, new String(CommonUtils.encodeBase64URL(loader.getMetaRecordHash().toByteArray())));
         Log.d(SpaceUtils.TAG, "File");
         Log.d(SpaceUtils.TAG, "Path: " + f.getAbsolutePath());
-        final Uri uri = FileProvider.getUriForFile(DetailActivity.this, getString(R.string.file_provider_authority), f);
-        if (!f.exists() || f.length() < meta.getSize()) {
-            writeDocumentToURI(uri);
+        final Uri uri;
+        if (loader.isStreamable()) {
+            DownloadStore store = new DownloadStore(f, loader.getReferences());
+            try {
+                store.open();
+            } catch (IOException e) {
+                /* Ignored */
+                e.printStackTrace();
+                store.delete();
+            }
+            if (!store.isComplete() && (SpaceUtils.isVideo(type) || SpaceUtils.PDF_TYPE.equals(type)) && DocumentProvider.isSupported(loader)) {
+                // Stream chunks on demand instead of writing the whole document first
+                Log.d(SpaceUtils.TAG, "Streaming");
+                uri = DocumentProvider.register(DetailActivity.this, loader);
+            } else {
+                uri = FileProvider.getUriForFile(DetailActivity.this, getString(R.string.file_provider_authority), f);
+                if (!store.isComplete()) {
+                    downloadDocument(store);
+                }
+            }
+            store.close();
+        } else {
+            uri = FileProvider.getUriForFile(DetailActivity.this, getString(R.string.file_provider_authority), f);
+            if (!f.exists() || f.length() < meta.getSize()) {
+                writeDocumentToURI(uri);
+            }
         }
         Log.d(SpaceUtils.TAG, "Length: " + f.length());
         if (SpaceUtils.isVideo(type)) {
@@ -329,6 +365,72 @@ public class DetailActivity extends AppCompatActivity {
         ft.commit();
     }
 
+    @WorkerThread
+    private void downloadDocument(final DownloadStore store) {
+        final int count = store.getChunkCount();
+        final int start = store.getWrittenCount();
+        final ProgressBar[] progressBar = new ProgressBar[1];
+        final TextView[] progressStatus = new TextView[1];
+        final Dialog[] progressDialog = new Dialog[1];
+        Log.d(SpaceUtils.TAG, "Resuming download from chunk " + start + " of " + count);
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                View progressView = View.inflate(DetailActivity.this, R.layout.dialog_progress, null);
+                progressBar[0] = progressView.findViewById(R.id.progress_bar);
+                progressBar[0].setProgress(start * 100 / count);
+                progressStatus[0] = progressView.findViewById(R.id.progress_status);
+                progressStatus[0].setVisibility(View.VISIBLE);
+                progressStatus[0].setText(getString(R.string.detail_downloading_chunk, start + 1, count));
+                progressDialog[0] = new AlertDialog.Builder(DetailActivity.this, R.style.AlertDialogTheme)
+                        .setTitle(R.string.title_dialog_loading_document)
+                        .setCancelable(false)
+                        .setView(progressView)
+                        .show();
+            }
+        });
+        try {
+            final int[] index = {start};
+            loader.readFile(start, new RecordCallback() {
+                @Override
+                public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
+                    try {
+                        store.write(index[0]++, payload);
+                    } catch (IOException e) {
+                        /* Ignored */
+                        e.printStackTrace();
+                        return false;
+                    }
+                    final int written = index[0];
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (progressBar[0] != null) {
+                                progressBar[0].setProgress(written * 100 / count);
+                            }
+                            if (progressStatus[0] != null && written < count) {
+                                progressStatus[0].setText(getString(R.string.detail_downloading_chunk, written + 1, count));
+                            }
+                        }
+                    });
+                    return true;
+                }
+            });
+        } catch (IOException e) {
+            /* Ignored */
+            e.printStackTrace();
+        } finally {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (progressDialog[0] != null && progressDialog[0].isShowing()) {
+                        progressDialog[0].dismiss();
+                    }
+                }
+            });
+        }
+    }
+
     @WorkerThread
     private void writeDocumentToURI(final Uri uri) {
         final double size = loader.getMeta().getSize();
@@ -553,17 +655,10 @@ public class DetailActivity extends AppCompatActivity {
                                 try {
                                     final Share.Builder sb = Share.newBuilder();
                                     if (shared) {
-                                        PoWChannel shares = SpaceUtils.getShareChannel(alias);
                                         SpaceAndroidUtils.setStatus(DetailActivity.this, progressStatus, R.string.detail_loading_share);
-                                        ChannelUtils.loadHead(shares, cache);
+                                        PoWChannel shares = ChannelSync.get(SpaceUtils.getShareChannel(alias), cache);
                                         SpaceAndroidUtils.setStatus(DetailActivity.this, progressStatus, R.string.detail_pulling_share);
-                                        try {
-                                            // TODO is this pull needed since SpaceUtils.readShares will request missing blocks?
-                                            ChannelUtils.pull(shares, cache, registrarNetwork);
-                                        } catch (NoSuchAlgorithmException e) {
-                                            /* Ignored */
-                                            e.printStackTrace();
-                                        }
+                                        ChannelSync.pull(shares, cache, registrarNetwork);
                                         SpaceAndroidUtils.setStatus(DetailActivity.this, progressStatus, R.string.detail_reading_share);
                                         SpaceUtils.readShares(shares, cache, registrarNetwork, alias, keys, null, metaRecordHash, null, new RecordCallback() {
                                             @Override
@@ -589,17 +684,10 @@ public class DetailActivity extends AppCompatActivity {
                                         SpaceAndroidUtils.setStatus(DetailActivity.this, progressStatus, R.string.detail_loading_file);
                                         ChannelUtils.loadHead(files, cache, registrarNetwork);
 
-                                        PoWChannel metas = SpaceUtils.getMetaChannel(alias);
                                         SpaceAndroidUtils.setStatus(DetailActivity.this, progressStatus, R.string.detail_loading_meta);
-                                        ChannelUtils.loadHead(metas, cache);
+                                        PoWChannel metas = ChannelSync.get(SpaceUtils.getMetaChannel(alias), cache);
                                         SpaceAndroidUtils.setStatus(DetailActivity.this, progressStatus, R.string.detail_pulling_meta);
-                                        try {
-                                            // TODO is this pull needed since ChannelUtils.read will request missing blocks?
-                                            ChannelUtils.pull(metas, cache, registrarNetwork);
-                                        } catch (NoSuchAlgorithmException e) {
-                                            /* Ignored */
-                                            e.printStackTrace();
-                                        }
+                                        ChannelSync.pull(metas, cache, registrarNetwork);
                                         SpaceAndroidUtils.setStatus(DetailActivity.this, progressStatus, R.string.detail_reading_meta);
                                         ChannelUtils.read(metas.getName(), metas.getHead(), null, cache, registrarNetwork, alias, keys, metaRecordHash, new RecordCallback() {
                                             @Override
@@ -629,17 +717,10 @@ public class DetailActivity extends AppCompatActivity {
                                             }
                                         });
                                     }
-                                    PoWChannel previews = SpaceUtils.getPreviewChannel(metaRecordHash);
                                     SpaceAndroidUtils.setStatus(DetailActivity.this, progressStatus, R.string.detail_loading_preview);
-                                    ChannelUtils.loadHead(previews, cache);
+                                    PoWChannel previews = ChannelSync.get(SpaceUtils.getPreviewChannel(metaRecordHash), cache);
                                     SpaceAndroidUtils.setStatus(DetailActivity.this, progressStatus, R.string.detail_pulling_preview);
-                                    try {
-                                        // TODO is this pull needed since ChannelUtils.read will request missing blocks?
-                                        ChannelUtils.pull(previews, cache, registrarNetwork);
-                                    } catch (NoSuchAlgorithmException e) {
-                                        /* Ignored */
-                                        e.printStackTrace();
-                                    }
+                                    ChannelSync.pull(previews, cache, registrarNetwork);
                                     SpaceAndroidUtils.setStatus(DetailActivity.this, progressStatus, R.string.detail_reading_preview);
                                     ChannelUtils.read(previews.getName(), previews.getHead(), null, cache, registrarNetwork, alias, keys, null, new RecordCallback() {
                                         @Override
@@ -650,7 +731,8 @@ public class DetailActivity extends AppCompatActivity {
                                                     .setRecordHash(blockEntry.getRecordHash()));
                                             sb.addPreviewKey(ByteString.copyFrom(key));
                                             // TODO update progress dialog
-                                            return false;
+                                            // Share every size so recipients can pick the best fit
+                                            return true;
                                         }
                                     });
                                     final Share share = sb.build();
@@ -661,45 +743,36 @@ public class DetailActivity extends AppCompatActivity {
                                     acl.put(alias, keys.getPublic());
                                     final List<Reference> shareReferences = new ArrayList<>();
                                     Record shareRecord = BCUtils.createRecord(alias, keys, acl, shareReferences, share.toByteArray());
-                                    final Reference[] shareReference = {null};
-                                    for (int i = 0; shareReference[0] == null && i < 5; i++) {
-                                        int results = 1 + 1;// 1 for sharer + 1 for each recipient
-                                        SpaceUtils.postRecord(website, "share", shareRecord, results, new RemoteMiningListener() {
-                                            @Override
-                                            public void onReference(Reference reference) {
-                                                shareReference[0] = reference;
-                                                // TODO update progress dialog
-                                            }
+                                    int results = 1 + 1;// 1 for sharer + 1 for each recipient
+                                    final Reference shareReference = RetryPolicy.postRecord(website, "share", shareRecord, results, new RemoteMiningListener() {
+                                        @Override
+                                        public void onReference(Reference reference) {
+                                            // TODO update progress dialog
+                                        }
 
-                                            @Override
-                                            public void onBlock(ByteString hash, Block block) {
-                                                Log.d(SpaceUtils.TAG, "Mined Block: " + block);
-                                                // Write block to cache
-                                                cache.putBlock(hash, block);
-                                                for (String registrarAlias : registrars.keySet()) {
-                                                    if (!registrarAlias.equals(minerAlias)) {
-                                                        Registrar registrar = registrars.get(registrarAlias);
-                                                        if (registrar != null) {
-                                                            try {
-                                                                InetAddress address = InetAddress.getByName(registrar.getMerchant().getDomain());
-                                                                TCPNetwork.cast(address, block.getChannelName(), cache, registrarNetwork, hash, block);
-                                                            } catch (UnknownHostException e) {
-                                                                /* Ignored */
-                                                                e.printStackTrace();
-                                                            }
-                                                        }
+                                        @Override
+                                        public void onBlock(ByteString hash, Block block) {
+                                            Log.d(SpaceUtils.TAG, "Mined Block: " + block);
+                                            // Write block to cache
+                                            cache.putBlock(hash, block);
+                                            for (String registrarAlias : registrars.keySet()) {
+                                                if (!registrarAlias.equals(minerAlias)) {
+                                                    Registrar registrar = registrars.get(registrarAlias);
+                                                    if (registrar != null) {
+                                                        BroadcastQueue.cast(registrar.getMerchant().getDomain(), block.getChannelName(), cache, registrarNetwork, hash, block);
                                                     }
                                                 }
                                             }
-                                        });
-                                    }
-                                    if (shareReference[0] == null) {
+                                        }
+                                    });
+                                    if (shareReference == null) {
                                         // FIXME show error dialog with retry option
-                                        System.err.println("Failed to post share record 5 times");
+                                        System.err.println("Failed to post share record");
                                         return;
                                     }
-                                    Log.d(SpaceUtils.TAG, "Uploaded Share " + new String(CommonUtils.encodeBase64URL(shareReference[0].getRecordHash().toByteArray())));
-                                    // TODO update UI to show new Share
+                                    Log.d(SpaceUtils.TAG, "Uploaded Share " + new String(CommonUtils.encodeBase64URL(shareReference.getRecordHash().toByteArray())));
+                                    // Pull the new head so subscribers re-read the share channel
+                                    ChannelSync.refresh(SpaceUtils.getShareChannel(alias), cache, registrarNetwork);
                                 } catch (SocketException | SocketTimeoutException e) {
                                     CommonAndroidUtils.showErrorDialog(DetailActivity.this, R.style.AlertDialogTheme, getString(R.string.error_connection, website), e);
                                 } catch (BadPaddingException | IOException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException | InvalidKeySpecException | NoSuchAlgorithmException | NoSuchPaddingException | SignatureException e) {
@@ -776,44 +849,35 @@ public class DetailActivity extends AppCompatActivity {
                                     final List<Reference> tagReferences = new ArrayList<>();
                                     tagReferences.add(reference);
                                     Record tagRecord = BCUtils.createRecord(alias, keys, acl, tagReferences, tag.toByteArray());
-                                    final Reference[] tagReference = {null};
-                                    for (int i = 0; tagReference[0] == null && i < 5; i++) {
-                                        SpaceUtils.postRecord(website, "tag", tagRecord, 1, new RemoteMiningListener() {
-                                            @Override
-                                            public void onReference(Reference reference) {
-                                                tagReference[0] = reference;
-                                                // TODO update progress dialog
-                                            }
+                                    final Reference tagReference = RetryPolicy.postRecord(website, "tag", tagRecord, 1, new RemoteMiningListener() {
+                                        @Override
+                                        public void onReference(Reference reference) {
+                                            // TODO update progress dialog
+                                        }
 
-                                            @Override
-                                            public void onBlock(ByteString hash, Block block) {
-                                                Log.d(SpaceUtils.TAG, "Mined Block: " + block);
-                                                // Write block to cache
-                                                cache.putBlock(hash, block);
-                                                for (String registrarAlias : registrars.keySet()) {
-                                                    if (!registrarAlias.equals(minerAlias)) {
-                                                        Registrar registrar = registrars.get(registrarAlias);
-                                                        if (registrar != null) {
-                                                            try {
-                                                                InetAddress address = InetAddress.getByName(registrar.getMerchant().getDomain());
-                                                                TCPNetwork.cast(address, block.getChannelName(), cache, registrarNetwork, hash, block);
-                                                            } catch (UnknownHostException e) {
-                                                                /* Ignored */
-                                                                e.printStackTrace();
-                                                            }
-                                                        }
+                                        @Override
+                                        public void onBlock(ByteString hash, Block block) {
+                                            Log.d(SpaceUtils.TAG, "Mined Block: " + block);
+                                            // Write block to cache
+                                            cache.putBlock(hash, block);
+                                            for (String registrarAlias : registrars.keySet()) {
+                                                if (!registrarAlias.equals(minerAlias)) {
+                                                    Registrar registrar = registrars.get(registrarAlias);
+                                                    if (registrar != null) {
+                                                        BroadcastQueue.cast(registrar.getMerchant().getDomain(), block.getChannelName(), cache, registrarNetwork, hash, block);
                                                     }
                                                 }
                                             }
-                                        });
-                                    }
-                                    if (tagReference[0] == null) {
+                                        }
+                                    });
+                                    if (tagReference == null) {
                                         // FIXME show error dialog with retry option
-                                        System.err.println("Failed to post tag record 5 times");
+                                        System.err.println("Failed to post tag record");
                                         return;
                                     }
-                                    Log.d(SpaceUtils.TAG, "Uploaded Tag " + new String(CommonUtils.encodeBase64URL(tagReference[0].getRecordHash().toByteArray())));
-                                    // TODO update UI to show new Tag
+                                    Log.d(SpaceUtils.TAG, "Uploaded Tag " + new String(CommonUtils.encodeBase64URL(tagReference.getRecordHash().toByteArray())));
+                                    // Pull the new head so the tag adapter re-reads the tag channel
+                                    ChannelSync.refresh(SpaceAndroidUtils.getTagChannel(loader.getMetaRecordHash()), cache, registrarNetwork);
                                 } catch (SocketException | SocketTimeoutException e) {
                                     CommonAndroidUtils.showErrorDialog(DetailActivity.this, R.style.AlertDialogTheme, getString(R.string.error_connection, website), e);
                                 } catch (BadPaddingException | IOException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException | SignatureException e) {
@@ -20,7 +20,6 @@ import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
-import android.media.ThumbnailUtils;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -29,11 +28,13 @@ import android.widget.ImageView;
 
 import com.aletheiaware.space.SpaceProto.Preview;
 import com.aletheiaware.space.android.R;
+import com.aletheiaware.space.android.utils.PreviewUtils;
 import com.aletheiaware.space.android.utils.SpaceAndroidUtils;
 import com.aletheiaware.space.utils.SpaceUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 import androidx.annotation.NonNull;
 import androidx.exifinterface.media.ExifInterface;
@@ -67,11 +68,17 @@ public class ImageViewFragment extends UriContentFragment {
     }
 
     @Override
-    public Preview getPreview(Activity parent) {
+    public List<Preview> getPreviews(Activity parent) {
         if (bitmap == null) {
             try (InputStream in = getInputStream(parent)) {
                 Bitmap image = BitmapFactory.decodeStream(in);
-                bitmap = ThumbnailUtils.extractThumbnail(image, SpaceUtils.PREVIEW_IMAGE_SIZE, SpaceUtils.PREVIEW_IMAGE_SIZE);
+                if (image == null) {
+                    return super.getPreviews(parent);
+                }
+                bitmap = PreviewUtils.scaleToFit(image, PreviewUtils.PREVIEW_IMAGE_SIZES[PreviewUtils.PREVIEW_IMAGE_SIZES.length - 1]);
+                if (bitmap != image) {
+                    image.recycle();
+                }
                 if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
                     ExifInterface exif = new ExifInterface(in);
                     int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED);
@@ -82,6 +89,6 @@ public class ImageViewFragment extends UriContentFragment {
                 e.printStackTrace();
             }
         }
-        return super.getPreview(parent);
+        return super.getPreviews(parent);
     }
 }
@@ -42,13 +42,21 @@ import com.aletheiaware.bc.android.utils.BCAndroidUtils;
 import com.aletheiaware.bc.utils.ChannelUtils;
 import com.aletheiaware.common.android.utils.CommonAndroidUtils;
 import com.aletheiaware.finance.FinanceProto.Merchant;
-import com.aletheiaware.finance.FinanceProto.Registration;
 import com.aletheiaware.space.SpaceProto.Meta;
 import com.aletheiaware.space.SpaceProto.Registrar;
+import com.aletheiaware.space.android.ChannelSync;
+import com.aletheiaware.space.android.KeyCache;
 import com.aletheiaware.space.android.MetaAdapter;
+import com.aletheiaware.space.android.MetaIndex;
+import com.aletheiaware.space.android.MetaIndex.MetaIndexCallback;
+import com.aletheiaware.space.android.PreviewCache;
+import com.aletheiaware.space.android.PreviewLoader;
+import com.aletheiaware.space.android.ProviderResolver;
+import com.aletheiaware.space.android.ProviderResolver.Providers;
 import com.aletheiaware.space.android.R;
 import com.aletheiaware.space.android.RegistrarArrayAdapter;
-import com.aletheiaware.space.android.utils.PreviewUtils;
+import com.aletheiaware.space.android.StageProgress;
+import com.aletheiaware.space.android.UploadService;
 import com.aletheiaware.space.android.utils.SpaceAndroidUtils;
 import com.aletheiaware.space.android.utils.SpaceAndroidUtils.CustomerIdCallback;
 import com.aletheiaware.space.utils.SpaceUtils;
@@ -66,12 +74,18 @@ import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 
 import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.preference.PreferenceManager;
@@ -83,6 +97,9 @@ public class MainActivity extends AppCompatActivity {
 
     private TextView emptyListHelpText;
     private MetaAdapter adapter;
+    private MetaIndex index;
+    private ChannelSync.HeadListener headListener;
+    private PreviewLoader previewLoader;
     private RecyclerView recyclerView;
     private volatile boolean refreshing = false;
 
@@ -159,30 +176,19 @@ public class MainActivity extends AppCompatActivity {
             final KeyPair keys = BCAndroidUtils.getKeyPair();
             final Cache cache = BCAndroidUtils.getCache();
             if (adapter == null || !alias.equals(adapter.getAlias())) {
+                // Decrypted keys belong to the previous account
+                KeyCache.clear();
+                index = new MetaIndex(MainActivity.this, alias);
                 // Adapter
-                adapter = new MetaAdapter(MainActivity.this, alias) {
-                    Network network;
+                adapter = new MetaAdapter(MainActivity.this, alias, index) {
                     @Override
-                    protected void loadPreview(final ByteString hash) {
-                        new Thread() {
-                            @Override
-                            public void run() {
-                                try {
-                                    if (network == null) {
-                                        network = SpaceAndroidUtils.getSpaceNetwork();
-                                        Map<String, Registration> registrations = SpaceAndroidUtils.getRegistrations(alias, keys, cache, network);
-                                        Map<String, Registrar> registrars = SpaceAndroidUtils.getRegistrars(registrations.keySet(), cache, network);
-                                        if (!registrars.isEmpty()) {
-                                            network = SpaceAndroidUtils.getRegistrarNetwork(registrars);
-                                        }
-                                    }
-                                    PreviewUtils.loadPreview(alias, keys, cache, network, hash, isShared(hash), adapter);
-                                } catch (IOException | IllegalBlockSizeException | InvalidKeyException | NoSuchAlgorithmException | BadPaddingException | NoSuchPaddingException | InvalidAlgorithmParameterException e) {
-                                    /* Ignored */
-                                    e.printStackTrace();
-                                }
-                            }
-                        }.start();
+                    protected void loadPreview(ByteString hash) {
+                        previewLoader.load(hash, isShared(hash));
+                    }
+
+                    @Override
+                    protected void cancelPreview(ByteString hash) {
+                        previewLoader.cancel(hash);
                     }
 
                     @Override
@@ -194,14 +200,27 @@ public class MainActivity extends AppCompatActivity {
                         startActivityForResult(i, SpaceAndroidUtils.DETAIL_ACTIVITY);
                     }
                 };
+                if (previewLoader != null) {
+                    previewLoader.shutdown();
+                }
+                previewLoader = new PreviewLoader(alias, keys, cache, adapter.getPreviewCache(), getResources().getDimensionPixelSize(R.dimen.preview_list_size), adapter);
                 // TODO visually show files that are still getting mined
                 recyclerView.setAdapter(adapter);
-            }
-            if (adapter.isEmpty()) {
+                subscribe(alias, adapter);
+                load();
+            } else if (adapter.isEmpty()) {
                 refresh();
             }
+            // Resume uploads interrupted while the app was locked or killed
+            new Thread() {
+                @Override
+                public void run() {
+                    UploadService.start(MainActivity.this);
+                }
+            }.start();
             // TODO if this is first time the user has logged in, show welcome guide
         } else {
+            KeyCache.clear();
             Intent intent = new Intent(this, AccessActivity.class);
             startActivityForResult(intent, SpaceAndroidUtils.ACCESS_ACTIVITY);
         }
@@ -212,6 +231,14 @@ public class MainActivity extends AppCompatActivity {
         super.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (previewLoader != null) {
+            previewLoader.shutdown();
+        }
+        super.onDestroy();
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent intent) {
         switch (requestCode) {
@@ -227,18 +254,38 @@ public class MainActivity extends AppCompatActivity {
                 }
                 break;
             case SpaceAndroidUtils.PROVIDERS_ACTIVITY:
-                // Clear adapter to reload from new providers
+                // Clear adapter, index, and checkpoints to reload from new providers
+                ProviderResolver.invalidate();
+                ChannelSync.clear();
                 adapter.clear();
+                index.clear();
+                previewLoader.clear();
+                SpaceAndroidUtils.setMetaHeadPreference(this, adapter.getAlias(), null);
+                SpaceAndroidUtils.setShareHeadPreference(this, adapter.getAlias(), null);
                 // Fallthrough
             case SpaceAndroidUtils.ACCOUNT_ACTIVITY:
+                if (!BCAndroidUtils.isInitialized()) {
+                    // Signed out, drop keys and previews read by the account
+                    KeyCache.clear();
+                    final PreviewCache previewCache = PreviewCache.get(this);
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            previewCache.clear();
+                        }
+                    }.start();
+                }
                 // Fallthrough
             case SpaceAndroidUtils.COMPOSE_ACTIVITY:
                 // Fallthrough
             case SpaceAndroidUtils.DETAIL_ACTIVITY:
                 // Fallthrough
             case SpaceAndroidUtils.SETTINGS_ACTIVITY:
+                if (adapter != null) {
+                    // Re-sort if sort preference has changed
+                    adapter.sort();
+                }
                 // Fallthrough
-                // TODO if sort preference has changed, recycler view need to relayout data in adapter
             case SpaceAndroidUtils.UPLOAD_ACTIVITY:
                 refresh();
                 break;
@@ -339,140 +386,137 @@ public class MainActivity extends AppCompatActivity {
         return adapter;
     }
 
+    /**
+     * Refreshes when the meta or share channel's head moves past the adapter's checkpoints, such as
+     * after another screen posts a record.
+     */
+    private void subscribe(String alias, final MetaAdapter a) {
+        final String metaChannel = SpaceUtils.getMetaChannel(alias).getName();
+        final String shareChannel = SpaceUtils.getShareChannel(alias).getName();
+        // Held in a field as subscriptions are weak, replacing the listener for any previous account
+        headListener = new ChannelSync.HeadListener() {
+            @Override
+            public void onHead(String channel, ByteString head) {
+                if (refreshing || a != adapter) {
+                    // Running refresh reads up to the new head
+                    return;
+                }
+                ByteString checkpoint = channel.equals(metaChannel) ? a.getMetaHead() : a.getShareHead();
+                if (!head.equals(checkpoint)) {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            refresh();
+                        }
+                    });
+                }
+            }
+        };
+        ChannelSync.subscribe(metaChannel, headListener);
+        ChannelSync.subscribe(shareChannel, headListener);
+    }
+
+    private void load() {
+        final MetaAdapter a = adapter;
+        final MetaIndex i = index;
+        new Thread() {
+            @Override
+            public void run() {
+                // Previews cached by another account are not kept
+                a.getPreviewCache().setAlias(a.getAlias());
+                try {
+                    int count = i.load(new MetaIndexCallback() {
+                        @Override
+                        public void onEntry(ByteString recordHash, long timestamp, boolean shared, long offset) {
+                            a.addIndexed(recordHash, timestamp, shared, offset);
+                        }
+                    });
+                    Log.d(SpaceUtils.TAG, "Indexed Metas: " + count);
+                    if (count > 0) {
+                        // Index holds every record up to the checkpoints so refresh only reads newer blocks
+                        a.setMetaHead(SpaceAndroidUtils.getMetaHeadPreference(MainActivity.this, a.getAlias()));
+                        a.setShareHead(SpaceAndroidUtils.getShareHeadPreference(MainActivity.this, a.getAlias()));
+                    }
+                } catch (IOException e) {
+                    // Rebuild index from network
+                    e.printStackTrace();
+                    a.clear();
+                    i.clear();
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        refresh();
+                    }
+                });
+            }
+        }.start();
+    }
+
     private void refresh() {
         if (BCAndroidUtils.isInitialized() && !refreshing) {
             refreshing = true;
-            // Create refreshing dialog
-            View progressView = View.inflate(MainActivity.this, R.layout.dialog_progress, null);
-            final ProgressBar progressBar = progressView.findViewById(R.id.progress_bar);
-            progressBar.setIndeterminate(true);
-            final TextView progressStatus = progressView.findViewById(R.id.progress_status);
-            progressStatus.setVisibility(View.VISIBLE);
-            final AlertDialog progressDialog = new AlertDialog.Builder(MainActivity.this, R.style.AlertDialogTheme)
-                    .setTitle(R.string.title_dialog_refreshing)
-                    .setIcon(R.drawable.refresh)
-                    .setCancelable(false)
-                    .setView(progressView)
-                    .show();
+            TextView status = null;
+            AlertDialog dialog = null;
+            if (adapter == null || adapter.isEmpty()) {
+                // Create refreshing dialog, indexed metas are already interactive so refresh those in the background
+                View progressView = View.inflate(MainActivity.this, R.layout.dialog_progress, null);
+                final ProgressBar progressBar = progressView.findViewById(R.id.progress_bar);
+                progressBar.setIndeterminate(true);
+                status = progressView.findViewById(R.id.progress_status);
+                status.setVisibility(View.VISIBLE);
+                dialog = new AlertDialog.Builder(MainActivity.this, R.style.AlertDialogTheme)
+                        .setTitle(R.string.title_dialog_refreshing)
+                        .setIcon(R.drawable.refresh)
+                        .setCancelable(false)
+                        .setView(progressView)
+                        .show();
+            }
+            final TextView progressStatus = status;
+            final AlertDialog progressDialog = dialog;
             new Thread() {
                 @Override
                 public void run() {
                     final String alias = BCAndroidUtils.getAlias();
                     final KeyPair keys = BCAndroidUtils.getKeyPair();
                     final Cache cache = BCAndroidUtils.getCache();
-                    Network network = SpaceAndroidUtils.getSpaceNetwork();
-                    try {
-                        Map<String, Registration> registrations = SpaceAndroidUtils.getRegistrations(alias, keys, cache, network);
-                        Map<String, Registrar> registrars = SpaceAndroidUtils.getRegistrars(registrations.keySet(), cache, network);
-                        if (registrars.isEmpty()) {
-                            final RegistrarArrayAdapter registrarArrayAdapter = new RegistrarArrayAdapter(MainActivity.this, cache, network);
-                            runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    new RegistrarSelectionDialog(MainActivity.this, registrarArrayAdapter) {
-                                        @Override
-                                        @UiThread
-                                        public void onSelect(final Map<String, Registrar> registrars) {
-                                            Set<Merchant> merchants = new HashSet<>();
-                                            for (Registrar registrar : registrars.values()) {
-                                                merchants.add(registrar.getMerchant());
-                                            }
-                                            SpaceAndroidUtils.registerCustomer(MainActivity.this, merchants, alias, new CustomerIdCallback() {
-                                                @Override
-                                                public void onCustomerId(String merchant, String customerId) {
-                                                    Registrar registrar = registrars.get(merchant);
-                                                    if (registrar != null) {
-                                                        String subscriptionId = SpaceAndroidUtils.subscribeCustomer(MainActivity.this, registrar.getMerchant(), registrar.getService(), alias, customerId);
-                                                        if (subscriptionId != null && !subscriptionId.isEmpty()) {
-                                                            // TODO show success dialog with customerId and subscriptionId
-                                                        }
-                                                    }
-                                                }
-                                            });
-                                        }
-
-                                        @Override
-                                        @UiThread
-                                        public void onCancel() {
-                                            // TODO
-                                        }
-                                    }.create();
-                                }
-                            });
-                        } else {
-                            network = SpaceAndroidUtils.getRegistrarNetwork(registrars);
+                    final MetaAdapter a = adapter;
+                    final MetaIndex i = index;
+                    final StageProgress progress = new StageProgress(MainActivity.this, progressStatus);
+                    // Channels are independent so refresh both while providers are looked up, each only waits for the network once it needs it
+                    ExecutorService executor = Executors.newFixedThreadPool(3);
+                    final Future<Network> network = executor.submit(new Callable<Network>() {
+                        @Override
+                        public Network call() {
+                            progress.begin(R.string.main_task_providers, R.string.main_looking_up_providers);
+                            try {
+                                return getNetwork(alias, keys, cache);
+                            } finally {
+                                progress.end(R.string.main_task_providers);
+                            }
                         }
-                    } catch (IOException | IllegalBlockSizeException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | BadPaddingException | NoSuchPaddingException | InvalidKeyException e) {
-                        /* Ignored */
-                        e.printStackTrace();
-                    }
-                    try {
-                        SpaceAndroidUtils.setStatus(MainActivity.this, progressStatus, R.string.main_loading_meta);
-                        final PoWChannel metas = SpaceUtils.getMetaChannel(alias);
-                        ChannelUtils.loadHead(metas, cache);
-                        SpaceAndroidUtils.setStatus(MainActivity.this, progressStatus, R.string.main_pulling_meta);
-                        try {
-                            // TODO is this pull needed since ChannelUtils.read will request missing blocks?
-                            ChannelUtils.pull(metas, cache, network);
-                        } catch (NoSuchAlgorithmException e) {
-                            /* Ignored */
-                            e.printStackTrace();
+                    });
+                    Future<?> metas = executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            refreshMetas(alias, keys, cache, network, a, i, progress);
                         }
-                        ByteString head = metas.getHead();
-                        if (head != null && !head.equals(adapter.getMetaHead())) {
-                            SpaceAndroidUtils.setStatus(MainActivity.this, progressStatus, R.string.main_reading_meta);
-                            ChannelUtils.read(metas.getName(), metas.getHead(), null, cache, network, alias, keys, null, new RecordCallback() {
-                                @Override
-                                public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
-                                    try {
-                                        Meta meta = Meta.newBuilder().mergeFrom(payload).build();
-                                        Log.d(SpaceUtils.TAG, "Meta: " + meta);
-                                        adapter.addMeta(blockEntry.getRecordHash(), blockEntry.getRecord().getTimestamp(), meta, false);
-                                    } catch (InvalidProtocolBufferException e) {
-                                        /* Ignored */
-                                        e.printStackTrace();
-                                    }
-                                    return true;
-                                }
-                            });
-                            adapter.setMetaHead(head);
+                    });
+                    Future<?> shares = executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            refreshShares(alias, keys, cache, network, a, i, progress);
                         }
-                    } catch (Exception e) {
-                        CommonAndroidUtils.showErrorDialog(MainActivity.this, R.style.AlertDialogTheme, R.string.error_meta_read_failed, e);
-                    }
+                    });
+                    executor.shutdown();
                     try {
-                        SpaceAndroidUtils.setStatus(MainActivity.this, progressStatus, R.string.main_loading_share);
-                        final PoWChannel shares = SpaceUtils.getShareChannel(alias);
-                        ChannelUtils.loadHead(shares, cache);
-                        SpaceAndroidUtils.setStatus(MainActivity.this, progressStatus, R.string.main_pulling_share);
-                        try {
-                            // TODO is this pull needed since SpaceUtils.readShares will request missing blocks?
-                            ChannelUtils.pull(shares, cache, network);
-                        } catch (NoSuchAlgorithmException e) {
-                            /* Ignored */
-                            e.printStackTrace();
-                        }
-                        ByteString head = shares.getHead();
-                        if (head != null && !head.equals(adapter.getShareHead())) {
-                            SpaceAndroidUtils.setStatus(MainActivity.this, progressStatus, R.string.main_reading_share);
-                            SpaceUtils.readShares(shares, cache, network, alias, keys, null, null, null, new RecordCallback() {
-                                @Override
-                                public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
-                                    try {
-                                        Meta meta = Meta.newBuilder().mergeFrom(payload).build();
-                                        Log.d(SpaceUtils.TAG, "Shared Meta: " + meta);
-                                        adapter.addMeta(blockEntry.getRecordHash(), blockEntry.getRecord().getTimestamp(), meta, true);
-                                    } catch (InvalidProtocolBufferException e) {
-                                        /* Ignored */
-                                        e.printStackTrace();
-                                    }
-                                    return true;
-                                }
-                            }, null);
-                            adapter.setShareHead(head);
-                        }
-                    } catch (Exception e) {
-                        CommonAndroidUtils.showErrorDialog(MainActivity.this, R.style.AlertDialogTheme, R.string.error_shared_meta_read_failed, e);
+                        metas.get();
+                        shares.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        /* Ignored */
+                        e.printStackTrace();
                     }
                     runOnUiThread(new Runnable() {
                         @Override
@@ -506,6 +550,173 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    @WorkerThread
+    private Network getNetwork(final String alias, KeyPair keys, Cache cache) {
+        Network network = SpaceAndroidUtils.getSpaceNetwork();
+        try {
+            Providers providers = ProviderResolver.get(alias, keys, cache);
+            network = providers.getSpaceNetwork();
+            if (providers.getRegistrars().isEmpty()) {
+                final RegistrarArrayAdapter registrarArrayAdapter = new RegistrarArrayAdapter(MainActivity.this, cache, network);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        new RegistrarSelectionDialog(MainActivity.this, registrarArrayAdapter) {
+                            @Override
+                            @UiThread
+                            public void onSelect(final Map<String, Registrar> registrars) {
+                                Set<Merchant> merchants = new HashSet<>();
+                                for (Registrar registrar : registrars.values()) {
+                                    merchants.add(registrar.getMerchant());
+                                }
+                                SpaceAndroidUtils.registerCustomer(MainActivity.this, merchants, alias, new CustomerIdCallback() {
+                                    @Override
+                                    public void onCustomerId(String merchant, String customerId) {
+                                        Registrar registrar = registrars.get(merchant);
+                                        if (registrar != null) {
+                                            String subscriptionId = SpaceAndroidUtils.subscribeCustomer(MainActivity.this, registrar.getMerchant(), registrar.getService(), alias, customerId);
+                                            if (subscriptionId != null && !subscriptionId.isEmpty()) {
+                                                // TODO show success dialog with customerId and subscriptionId
+                                            }
+                                        }
+                                    }
+                                });
+                            }
+
+                            @Override
+                            @UiThread
+                            public void onCancel() {
+                                // TODO
+                            }
+                        }.create();
+                    }
+                });
+            } else {
+                network = providers.getRegistrarNetwork();
+            }
+        } catch (IOException | IllegalBlockSizeException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | BadPaddingException | NoSuchPaddingException | InvalidKeyException e) {
+            /* Ignored */
+            e.printStackTrace();
+        }
+        return network;
+    }
+
+    @WorkerThread
+    private void refreshMetas(String alias, KeyPair keys, Cache cache, Future<Network> networkFuture, final MetaAdapter a, final MetaIndex i, StageProgress progress) {
+        try {
+            progress.begin(R.string.main_task_meta, R.string.main_loading_meta);
+            final PoWChannel metas = ChannelSync.get(SpaceUtils.getMetaChannel(alias), cache);
+            final Network network = networkFuture.get();
+            progress.begin(R.string.main_task_meta, R.string.main_pulling_meta);
+            ChannelSync.pull(metas, cache, network);
+            ByteString head = metas.getHead();
+            final ByteString checkpoint = a.getMetaHead();
+            if (head != null && !head.equals(checkpoint)) {
+                progress.begin(R.string.main_task_meta, R.string.main_reading_meta);
+                final boolean[] indexed = {true};
+                ChannelUtils.read(metas.getName(), metas.getHead(), null, cache, network, alias, keys, null, new RecordCallback() {
+                    @Override
+                    public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
+                        if (blockHash.equals(checkpoint)) {
+                            // Remaining blocks were read by a previous refresh
+                            return false;
+                        }
+                        Meta meta;
+                        try {
+                            meta = Meta.newBuilder().mergeFrom(payload).build();
+                        } catch (InvalidProtocolBufferException e) {
+                            /* Ignored */
+                            e.printStackTrace();
+                            return true;
+                        }
+                        Log.d(SpaceUtils.TAG, "Meta: " + meta);
+                        if (!addMeta(a, i, blockEntry.getRecordHash(), blockEntry.getRecord().getTimestamp(), meta, false)) {
+                            indexed[0] = false;
+                        }
+                        return true;
+                    }
+                });
+                i.flush();
+                if (indexed[0]) {
+                    a.setMetaHead(head);
+                    SpaceAndroidUtils.setMetaHeadPreference(MainActivity.this, alias, head);
+                }
+            }
+        } catch (Exception e) {
+            CommonAndroidUtils.showErrorDialog(MainActivity.this, R.style.AlertDialogTheme, R.string.error_meta_read_failed, e);
+        } finally {
+            progress.end(R.string.main_task_meta);
+        }
+    }
+
+    @WorkerThread
+    private void refreshShares(String alias, KeyPair keys, Cache cache, Future<Network> networkFuture, final MetaAdapter a, final MetaIndex i, StageProgress progress) {
+        try {
+            progress.begin(R.string.main_task_share, R.string.main_loading_share);
+            final PoWChannel shares = ChannelSync.get(SpaceUtils.getShareChannel(alias), cache);
+            final Network network = networkFuture.get();
+            progress.begin(R.string.main_task_share, R.string.main_pulling_share);
+            ChannelSync.pull(shares, cache, network);
+            ByteString head = shares.getHead();
+            final ByteString checkpoint = a.getShareHead();
+            if (head != null && !head.equals(checkpoint)) {
+                progress.begin(R.string.main_task_share, R.string.main_reading_share);
+                final boolean[] indexed = {true};
+                SpaceUtils.readShares(shares, cache, network, alias, keys, null, null, new RecordCallback() {
+                    @Override
+                    public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
+                        // Remaining blocks were read by a previous refresh
+                        return !blockHash.equals(checkpoint);
+                    }
+                }, new RecordCallback() {
+                    @Override
+                    public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
+                        Meta meta;
+                        try {
+                            meta = Meta.newBuilder().mergeFrom(payload).build();
+                        } catch (InvalidProtocolBufferException e) {
+                            /* Ignored */
+                            e.printStackTrace();
+                            return true;
+                        }
+                        Log.d(SpaceUtils.TAG, "Shared Meta: " + meta);
+                        if (!addMeta(a, i, blockEntry.getRecordHash(), blockEntry.getRecord().getTimestamp(), meta, true)) {
+                            indexed[0] = false;
+                        }
+                        return true;
+                    }
+                }, null);
+                i.flush();
+                if (indexed[0]) {
+                    a.setShareHead(head);
+                    SpaceAndroidUtils.setShareHeadPreference(MainActivity.this, alias, head);
+                }
+            }
+        } catch (Exception e) {
+            CommonAndroidUtils.showErrorDialog(MainActivity.this, R.style.AlertDialogTheme, R.string.error_shared_meta_read_failed, e);
+        } finally {
+            progress.end(R.string.main_task_share);
+        }
+    }
+
+    /**
+     * Adds the meta to the adapter and index, called concurrently by the refresh of each channel.
+     * Returns false if the index could not be written, in which case the checkpoint must not pass
+     * the meta so it is indexed again by the next refresh.
+     */
+    @WorkerThread
+    private boolean addMeta(MetaAdapter a, MetaIndex i, ByteString recordHash, long timestamp, Meta meta, boolean shared) {
+        if (a.addMeta(recordHash, timestamp, meta, shared) || a.isUnindexed(recordHash)) {
+            try {
+                a.setOffset(recordHash, i.put(recordHash, timestamp, meta, shared));
+            } catch (IOException e) {
+                Log.e(SpaceUtils.TAG, "Error indexing meta", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void account() {
         Intent i = new Intent(this, AccountActivity.class);
         startActivityForResult(i, SpaceAndroidUtils.ACCOUNT_ACTIVITY);
@@ -35,6 +35,7 @@ import com.aletheiaware.space.android.R;
 import com.aletheiaware.space.utils.SpaceUtils;
 
 import java.io.IOException;
+import java.util.List;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -162,7 +163,7 @@ public class PdfViewFragment extends UriContentFragment {
     }
 
     @Override
-    public Preview getPreview(Activity parent) {
+    public List<Preview> getPreviews(Activity parent) {
         if (bitmap == null && descriptor != null) {
             try {
                 Page page = new PdfRenderer(descriptor).openPage(0);
@@ -173,6 +174,6 @@ public class PdfViewFragment extends UriContentFragment {
                 e.printStackTrace();
             }
         }
-        return super.getPreview(parent);
+        return super.getPreviews(parent);
     }
 }
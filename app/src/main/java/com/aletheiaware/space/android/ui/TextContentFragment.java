@@ -25,6 +25,8 @@ import com.google.protobuf.ByteString;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
 
 public abstract class TextContentFragment extends ContentFragment {
 
@@ -51,7 +53,7 @@ public abstract class TextContentFragment extends ContentFragment {
     }
 
     @Override
-    public Preview getPreview(Activity parent) {
+    public List<Preview> getPreviews(Activity parent) {
         String text = getText();
         // Substring up to preview text length
         String preview = text.substring(0, Math.min(text.length(), SpaceUtils.PREVIEW_TEXT_LENGTH));
@@ -60,9 +62,9 @@ public abstract class TextContentFragment extends ContentFragment {
         if (index >= 0) {
             preview = preview.substring(0, index);
         }
-        return Preview.newBuilder()
+        return Collections.singletonList(Preview.newBuilder()
                 .setType(SpaceUtils.TEXT_PLAIN_TYPE)
                 .setData(ByteString.copyFromUtf8(preview))
-                .build();
+                .build());
     }
 }
@@ -39,6 +39,8 @@ import com.aletheiaware.space.SpaceProto.Miner;
 import com.aletheiaware.space.SpaceProto.Preview;
 import com.aletheiaware.space.SpaceProto.Registrar;
 import com.aletheiaware.space.android.MinerArrayAdapter;
+import com.aletheiaware.space.android.ProviderResolver;
+import com.aletheiaware.space.android.ProviderResolver.Providers;
 import com.aletheiaware.space.android.R;
 import com.aletheiaware.space.android.utils.SpaceAndroidUtils;
 import com.aletheiaware.space.utils.SpaceUtils;
@@ -49,6 +51,7 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import java.util.Map;
 
 import javax.crypto.BadPaddingException;
@@ -107,15 +110,15 @@ public class UploadActivity extends MiningActivity {
                 final String name = nameEditText.getText().toString();
                 final String type = typeTextView.getText().toString();
                 final InputStream in = contentFragment.getInputStream(UploadActivity.this);
-                final Preview preview = contentFragment.getPreview(UploadActivity.this);
+                final List<Preview> previews = contentFragment.getPreviews(UploadActivity.this);
                 new Thread() {
                     @Override
                     public void run() {
                         try {
-                            final Network spaceNetwork = SpaceAndroidUtils.getSpaceNetwork();
-                            final Map<String, Registration> registrations = SpaceAndroidUtils.getRegistrations(alias, keys, cache, spaceNetwork);
-                            final Map<String, Registrar> registrars = SpaceAndroidUtils.getRegistrars(registrations.keySet(), cache, spaceNetwork);
-                            final Network registrarNetwork = SpaceAndroidUtils.getRegistrarNetwork(registrars);
+                            final Providers providers = ProviderResolver.get(alias, keys, cache);
+                            final Map<String, Registration> registrations = providers.getRegistrations();
+                            final Map<String, Registrar> registrars = providers.getRegistrars();
+                            final Network registrarNetwork = providers.getRegistrarNetwork();
                             runOnUiThread(new Runnable() {
                                 @Override
                                 public void run() {
@@ -124,7 +127,7 @@ public class UploadActivity extends MiningActivity {
                                         @Override
                                         @UiThread
                                         public void onSelect(Miner miner) {
-                                            mine(alias, keys, cache, registrarNetwork, miner, registrars, name, type, preview, in);
+                                            mine(alias, miner, registrars, name, type, previews, in);
                                         }
 
                                         @Override
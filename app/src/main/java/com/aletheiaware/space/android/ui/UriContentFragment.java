@@ -23,13 +23,13 @@ import android.net.Uri;
 import com.aletheiaware.common.android.utils.CommonAndroidUtils;
 import com.aletheiaware.space.SpaceProto.Preview;
 import com.aletheiaware.space.android.R;
+import com.aletheiaware.space.android.utils.PreviewUtils;
 import com.aletheiaware.space.android.utils.SpaceAndroidUtils;
-import com.aletheiaware.space.utils.SpaceUtils;
-import com.google.protobuf.ByteString;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 
 public abstract class UriContentFragment extends ContentFragment {
 
@@ -83,21 +83,10 @@ public abstract class UriContentFragment extends ContentFragment {
     }
 
     @Override
-    public Preview getPreview(Activity parent) {
+    public List<Preview> getPreviews(Activity parent) {
         if (bitmap != null) {
-            if (bitmap.getWidth() > SpaceUtils.PREVIEW_IMAGE_SIZE || bitmap.getHeight() > SpaceUtils.PREVIEW_IMAGE_SIZE) {
-                // FIXME this scales rectangular bitmap into square and doesn't preserve aspect ratio
-                bitmap = Bitmap.createScaledBitmap(bitmap, SpaceUtils.PREVIEW_IMAGE_SIZE, SpaceUtils.PREVIEW_IMAGE_SIZE, false);
-            }
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, os);
-            return Preview.newBuilder()
-                    .setType(SpaceUtils.IMAGE_JPEG_TYPE)
-                    .setData(ByteString.copyFrom(os.toByteArray()))
-                    .setWidth(bitmap.getWidth())
-                    .setHeight(bitmap.getHeight())
-                    .build();
+            return PreviewUtils.createPreviews(bitmap);
         }
-        return null;
+        return Collections.emptyList();
     }
 }
@@ -37,6 +37,8 @@ import com.aletheiaware.space.SpaceProto.Preview;
 import com.aletheiaware.space.android.R;
 import com.aletheiaware.space.utils.SpaceUtils;
 
+import java.util.List;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -194,7 +196,7 @@ public class VideoViewFragment extends UriContentFragment implements OnClickList
     }
 
     @Override
-    public Preview getPreview(Activity parent) {
+    public List<Preview> getPreviews(Activity parent) {
         if (bitmap == null) {
             MediaMetadataRetriever retriever = null;
             try {
@@ -210,6 +212,6 @@ public class VideoViewFragment extends UriContentFragment implements OnClickList
                 }
             }
         }
-        return super.getPreview(parent);
+        return super.getPreviews(parent);
     }
 }
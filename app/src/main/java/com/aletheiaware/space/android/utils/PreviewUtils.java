@@ -16,6 +16,7 @@
 
 package com.aletheiaware.space.android.utils;
 
+import android.graphics.Bitmap;
 import android.util.Log;
 
 import com.aletheiaware.bc.BCProto.Block;
@@ -29,43 +30,129 @@ import com.aletheiaware.bc.PoWChannel;
 import com.aletheiaware.bc.utils.ChannelUtils;
 import com.aletheiaware.space.SpaceProto.Preview;
 import com.aletheiaware.space.SpaceProto.Share;
+import com.aletheiaware.space.android.BlockFetcher;
+import com.aletheiaware.space.android.ChannelSync;
+import com.aletheiaware.space.android.PreviewIndex;
+import com.aletheiaware.space.android.PreviewIndex.Location;
 import com.aletheiaware.space.utils.SpaceUtils;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 public class PreviewUtils {
+
+    public static final String IMAGE_WEBP_TYPE = "image/webp";
+    // Longest side in pixels of each image preview generated on upload; list thumbnail, grid tile, and detail placeholder
+    public static final int[] PREVIEW_IMAGE_SIZES = {128, 256, 512};
+    public static final int PREVIEW_IMAGE_QUALITY = 80;
+
     private PreviewUtils() {}
 
     public interface PreviewCallback {
         void onPreview(ByteString hash, Preview preview);
     }
 
+    /**
+     * Returns a WEBP preview of the bitmap at each of PREVIEW_IMAGE_SIZES, preserving aspect ratio.
+     * Sizes larger than the bitmap are skipped, except the smallest.
+     */
+    @WorkerThread
+    public static List<Preview> createPreviews(Bitmap bitmap) {
+        List<Preview> previews = new ArrayList<>();
+        int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        for (int size : PREVIEW_IMAGE_SIZES) {
+            if (!previews.isEmpty() && size > longest) {
+                break;
+            }
+            Bitmap scaled = scaleToFit(bitmap, size);
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            scaled.compress(Bitmap.CompressFormat.WEBP, PREVIEW_IMAGE_QUALITY, os);
+            previews.add(Preview.newBuilder()
+                    .setType(IMAGE_WEBP_TYPE)
+                    .setData(ByteString.copyFrom(os.toByteArray()))
+                    .setWidth(scaled.getWidth())
+                    .setHeight(scaled.getHeight())
+                    .build());
+            if (scaled != bitmap) {
+                scaled.recycle();
+            }
+        }
+        return previews;
+    }
+
+    /**
+     * Returns the bitmap scaled to fit within size pixels on its longest side, keeping its aspect
+     * ratio, or the bitmap itself if it already fits.
+     */
+    public static Bitmap scaleToFit(Bitmap bitmap, int size) {
+        int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longest <= size) {
+            return bitmap;
+        }
+        float scale = size / (float) longest;
+        return Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)), Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+    }
+
+    /**
+     * Returns true if the candidate is a better fit than the best so far for a view whose longest
+     * side is size pixels; the smallest preview at least as large as the view, or failing that the
+     * largest preview.
+     */
+    public static boolean isBetter(Preview candidate, @Nullable Preview best, int size) {
+        if (best == null) {
+            return true;
+        }
+        int c = Math.max(candidate.getWidth(), candidate.getHeight());
+        int b = Math.max(best.getWidth(), best.getHeight());
+        if (b >= size) {
+            return c >= size && c < b;
+        }
+        return c > b;
+    }
+
+    /**
+     * Loads the file's preview from the location recorded in the index, or else reads the file's
+     * Share or Preview channel and records the location of the preview chosen.
+     */
     @WorkerThread
-    public static void loadPreview(final String alias, final KeyPair keys, final Cache cache, final Network network, final ByteString metaRecordHash, final boolean shared, final PreviewCallback callback) throws IOException {
+    public static void loadPreview(final String alias, final KeyPair keys, final Cache cache, final Network network, final PreviewIndex index, final ByteString metaRecordHash, final boolean shared, final int size, final PreviewCallback callback) throws IOException {
+        Location location = index.get(metaRecordHash);
+        if (location != null) {
+            Log.d(SpaceUtils.TAG, "Reading Indexed Preview");
+            Preview preview;
+            if (location.isShared()) {
+                preview = readSharedPreview(alias, keys, cache, network, location.reference, location.preview);
+            } else {
+                preview = readPreview(alias, keys, cache, network, location.reference);
+            }
+            if (preview != null) {
+                callback.onPreview(metaRecordHash, preview);
+                return;
+            }
+            // Location no longer readable, fall back to the channel
+        }
         if (shared) {
             Log.d(SpaceUtils.TAG, "Loading Share Channel");
-            PoWChannel shares = SpaceUtils.getShareChannel(alias);
-            ChannelUtils.loadHead(shares, cache);
+            PoWChannel shares = ChannelSync.get(SpaceUtils.getShareChannel(alias), cache);
             Log.d(SpaceUtils.TAG, "Pulling Share Channel");
-            try {
-                // TODO is this pull needed since SpaceUtils.readShares will request missing blocks?
-                ChannelUtils.pull(shares, cache, network);
-            } catch (NoSuchAlgorithmException e) {
-                /* Ignored */
-                e.printStackTrace();
-            }
+            ChannelSync.pull(shares, cache, network);
             Log.d(SpaceUtils.TAG, "Reading Share Channel");
             SpaceUtils.readShares(shares, cache, network, alias, keys, null, metaRecordHash, new RecordCallback() {
                 @Override
@@ -81,39 +168,27 @@ public class PreviewUtils {
                     Reference sharedMetaReference = share.getMetaReference();
                     if (sharedMetaReference.getRecordHash().equals(metaRecordHash)) {
                         int count = Math.min(share.getPreviewKeyCount(), share.getPreviewReferenceCount());
+                        Map<Reference, Block> blocks = BlockFetcher.fetch(cache, network, share.getPreviewReferenceList().subList(0, count));
                         Preview preview = null;
+                        int chosen = -1;
                         for (int i = 0; i < count; i++) {
                             Reference r = share.getPreviewReference(i);
-                            Block b = cache.getBlockContainingRecord(r.getChannelName(), r.getRecordHash());
-                            if (b == null) {
-                                b = network.getBlock(r);
-                                if (b != null) {
-                                    try {
-                                        cache.putBlock(ByteString.copyFrom(Crypto.getProtobufHash(b)), b);
-                                    } catch (NoSuchAlgorithmException e) {
-                                        /* Ignored */
-                                        e.printStackTrace();
-                                    }
-                                }
-                            }
+                            Block b = blocks.get(r);
                             if (b != null) {
-                                for (BlockEntry e : b.getEntryList()) {
-                                    try {
-                                        byte[] previewKey = share.getPreviewKey(i).toByteArray();
-                                        byte[] decryptedPayload = Crypto.decryptAES(previewKey, e.getRecord().getPayload().toByteArray());
-                                        Preview p = Preview.newBuilder().mergeFrom(decryptedPayload).build();
-                                        // TODO choose best preview for screen size
-                                        if (preview == null) {
-                                            preview = p;
-                                        }
-                                    } catch (InvalidProtocolBufferException | BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException ex) {
-                                        /* Ignored */
-                                        ex.printStackTrace();
-                                    }
+                                Preview p = decrypt(b, r, share.getPreviewKey(i).toByteArray());
+                                if (p != null && isBetter(p, preview, size)) {
+                                    preview = p;
+                                    chosen = i;
                                 }
                             }
                         }
                         if (preview != null) {
+                            index.put(metaRecordHash, Reference.newBuilder()
+                                    .setTimestamp(blockEntry.getRecord().getTimestamp())
+                                    .setChannelName(block.getChannelName())
+                                    .setBlockHash(blockHash)
+                                    .setRecordHash(blockEntry.getRecordHash())
+                                    .build(), chosen);
                             callback.onPreview(metaRecordHash, preview);
                         }
                     }
@@ -122,42 +197,121 @@ public class PreviewUtils {
             }, null, null);
         } else {
             Log.d(SpaceUtils.TAG, "Loading Preview Channel");
-            PoWChannel previews = SpaceUtils.getPreviewChannel(metaRecordHash);
-            ChannelUtils.loadHead(previews, cache);
+            PoWChannel previews = ChannelSync.get(SpaceUtils.getPreviewChannel(metaRecordHash), cache);
             Log.d(SpaceUtils.TAG, "Pulling Preview Channel");
-            try {
-                // TODO is this pull needed since ChannelUtils.read will request missing blocks?
-                ChannelUtils.pull(previews, cache, network);
-            } catch (NoSuchAlgorithmException e) {
-                /* Ignored */
-                e.printStackTrace();
-            }
+            ChannelSync.pull(previews, cache, network);
             Log.d(SpaceUtils.TAG, "Reading Preview Channel");
+            final Preview[] best = {null};
+            final Reference[] location = {null};
             ChannelUtils.read(previews.getName(), previews.getHead(), null, cache, network, alias, keys, null, new RecordCallback() {
                 @Override
                 public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
-                    Preview preview = null;
                     for (Reference r : blockEntry.getRecord().getReferenceList()) {
                         if (r.getRecordHash().equals(metaRecordHash)) {
                             try {
                                 Preview p = Preview.newBuilder().mergeFrom(payload).build();
-                                // TODO choose best preview for screen size
-                                if (preview == null) {
-                                    preview = p;
+                                if (isBetter(p, best[0], size)) {
+                                    best[0] = p;
+                                    location[0] = Reference.newBuilder()
+                                            .setTimestamp(blockEntry.getRecord().getTimestamp())
+                                            .setChannelName(block.getChannelName())
+                                            .setBlockHash(blockHash)
+                                            .setRecordHash(blockEntry.getRecordHash())
+                                            .build();
                                 }
                             } catch (InvalidProtocolBufferException e) {
                                 /* Ignored */
                                 e.printStackTrace();
                             }
+                            break;
                         }
                     }
-                    if (preview != null) {
-                        callback.onPreview(metaRecordHash, preview);
-                        return false;
-                    }
+                    // Keep reading as each size of preview is a separate record
                     return true;
                 }
             });
+            if (best[0] != null) {
+                index.put(metaRecordHash, location[0], -1);
+                callback.onPreview(metaRecordHash, best[0]);
+            }
+        }
+    }
+
+    /**
+     * Reads a Preview record written by the alias from the block holding it.
+     */
+    @WorkerThread
+    @Nullable
+    private static Preview readPreview(String alias, KeyPair keys, Cache cache, Network network, Reference reference) throws IOException {
+        final Preview[] result = {null};
+        ChannelUtils.read(reference.getChannelName(), reference.getBlockHash(), null, cache, network, alias, keys, reference.getRecordHash(), new RecordCallback() {
+            @Override
+            public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
+                try {
+                    result[0] = Preview.newBuilder().mergeFrom(payload).build();
+                } catch (InvalidProtocolBufferException e) {
+                    /* Ignored */
+                    e.printStackTrace();
+                }
+                return false;
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * Reads the Share record from the block holding it, and then the shared Preview record at the
+     * given index using the key unwrapped from the Share.
+     */
+    @WorkerThread
+    @Nullable
+    private static Preview readSharedPreview(String alias, KeyPair keys, final Cache cache, final Network network, Reference reference, final int index) throws IOException {
+        final Preview[] result = {null};
+        ChannelUtils.read(reference.getChannelName(), reference.getBlockHash(), null, cache, network, alias, keys, reference.getRecordHash(), new RecordCallback() {
+            @Override
+            public boolean onRecord(ByteString blockHash, Block block, BlockEntry blockEntry, byte[] key, byte[] payload) {
+                try {
+                    Share share = Share.newBuilder().mergeFrom(payload).build();
+                    if (index < share.getPreviewReferenceCount() && index < share.getPreviewKeyCount()) {
+                        result[0] = readPreview(cache, network, share.getPreviewReference(index), share.getPreviewKey(index).toByteArray());
+                    }
+                } catch (InvalidProtocolBufferException e) {
+                    /* Ignored */
+                    e.printStackTrace();
+                }
+                return false;
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * Reads a shared Preview record from the block holding it, using the key from the Share.
+     */
+    @WorkerThread
+    @Nullable
+    private static Preview readPreview(Cache cache, Network network, Reference reference, byte[] key) {
+        Block block = BlockFetcher.fetch(cache, network, Collections.singletonList(reference)).get(reference);
+        if (block == null) {
+            return null;
+        }
+        return decrypt(block, reference, key);
+    }
+
+    @Nullable
+    private static Preview decrypt(Block block, Reference reference, byte[] key) {
+        for (BlockEntry e : block.getEntryList()) {
+            if (!e.getRecordHash().equals(reference.getRecordHash())) {
+                continue;
+            }
+            try {
+                byte[] decryptedPayload = Crypto.decryptAES(key, e.getRecord().getPayload().toByteArray());
+                return Preview.newBuilder().mergeFrom(decryptedPayload).build();
+            } catch (InvalidProtocolBufferException | BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException ex) {
+                /* Ignored */
+                ex.printStackTrace();
+            }
         }
+        return null;
     }
 }
@@ -31,13 +31,15 @@ import android.util.Log;
 import android.widget.TextView;
 
 import com.aletheiaware.bc.BCProto.BlockEntry;
+import com.aletheiaware.bc.BC;
 import com.aletheiaware.bc.Cache;
 import com.aletheiaware.bc.Network;
-import com.aletheiaware.bc.TCPNetwork;
+import com.aletheiaware.bc.PoWChannel;
 import com.aletheiaware.bc.android.ui.StripeDialog;
 import com.aletheiaware.bc.android.utils.BCAndroidUtils;
 import com.aletheiaware.bc.utils.BCUtils;
 import com.aletheiaware.common.android.utils.CommonAndroidUtils;
+import com.aletheiaware.common.utils.CommonUtils;
 import com.aletheiaware.finance.FinanceProto.Merchant;
 import com.aletheiaware.finance.FinanceProto.Registration;
 import com.aletheiaware.finance.FinanceProto.Service;
@@ -48,17 +50,19 @@ import com.aletheiaware.finance.utils.FinanceUtils.SubscriptionCallback;
 import com.aletheiaware.space.SpaceProto.Miner;
 import com.aletheiaware.space.SpaceProto.Registrar;
 import com.aletheiaware.space.android.BuildConfig;
+import com.aletheiaware.space.android.HostResolver;
+import com.aletheiaware.space.android.PooledNetwork;
+import com.aletheiaware.space.android.ProviderResolver;
 import com.aletheiaware.space.android.R;
 import com.aletheiaware.space.android.ui.ComposeDocumentActivity;
 import com.aletheiaware.space.utils.SpaceUtils;
 import com.aletheiaware.space.utils.SpaceUtils.MinerCallback;
 import com.aletheiaware.space.utils.SpaceUtils.RegistrarCallback;
+import com.google.protobuf.ByteString;
 import com.stripe.android.model.Token;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
@@ -140,14 +144,17 @@ public class SpaceAndroidUtils {
         return subscriptions;
     }
 
+    /**
+     * Returns the registrars of the given merchants, or all registrars if merchants is null.
+     */
     @WorkerThread
-    public static Map<String, Registrar> getRegistrars(final Set<String> merchants, Cache cache, Network network) throws IOException {
+    public static Map<String, Registrar> getRegistrars(final @Nullable Set<String> merchants, Cache cache, Network network) throws IOException {
         final Map<String, Registrar> registrars = new HashMap<>();
         SpaceUtils.readRegistrars(SpaceUtils.getRegistrarChannel(), cache, network, null, new RegistrarCallback() {
             @Override
             public boolean onRegistrar(BlockEntry blockEntry, Registrar registrar) {
                 String a = registrar.getMerchant().getAlias();
-                if (merchants.contains(a) && !registrars.containsKey(a)) {
+                if ((merchants == null || merchants.contains(a)) && !registrars.containsKey(a)) {
                     registrars.put(a, registrar);
                 }
                 return true;
@@ -174,33 +181,29 @@ public class SpaceAndroidUtils {
 
     @WorkerThread
     public static Network getSpaceNetwork() {
-        Set<InetAddress> addresses = new HashSet<>();
+        Set<String> hosts = new HashSet<>();
         for (String host : SpaceUtils.getSpaceHosts(BuildConfig.DEBUG)) {
-            try {
-                addresses.add(InetAddress.getByName(host));
-            } catch (UnknownHostException e) {
-                /* Ignored */
-                e.printStackTrace();
-            }
+            hosts.add(host);
         }
-        return new TCPNetwork(addresses.toArray(new InetAddress[0]));
+        return PooledNetwork.get(HostResolver.resolveAll(hosts));
     }
 
     @WorkerThread
     public static Network getRegistrarNetwork(Map<String, Registrar> registrars) {
-        Set<InetAddress> addresses = new HashSet<>();
-        try {
-            for (String registrar : registrars.keySet()) {
-                Registrar r = registrars.get(registrar);
-                if (r != null) {
-                    addresses.add(InetAddress.getByName(r.getMerchant().getDomain()));
-                }
+        Set<String> hosts = new HashSet<>();
+        for (Registrar r : registrars.values()) {
+            if (r != null) {
+                hosts.add(r.getMerchant().getDomain());
             }
-        } catch (Exception e) {
-            /* Ignored */
-            e.printStackTrace();
         }
-        return new TCPNetwork(addresses.toArray(new InetAddress[0]));
+        return PooledNetwork.get(HostResolver.resolveAll(hosts));
+    }
+
+    /**
+     * Returns the channel holding the tags of the given file.
+     */
+    public static PoWChannel getTagChannel(ByteString metaRecordHash) {
+        return new PoWChannel(SpaceUtils.SPACE_PREFIX_TAG + new String(CommonUtils.encodeBase64URL(metaRecordHash.toByteArray())), BC.THRESHOLD_STANDARD);
     }
 
     public interface CustomerIdCallback {
@@ -222,6 +225,9 @@ public class SpaceAndroidUtils {
                         } catch (Exception e) {
                             CommonAndroidUtils.showErrorDialog(activity, R.style.AlertDialogTheme, R.string.error_registering, e);
                         }
+                        if (customerId != null && !customerId.isEmpty()) {
+                            ProviderResolver.invalidate();
+                        }
                         if (customerId != null && !customerId.isEmpty() && callback != null) {
                             callback.onCustomerId(merchant.getAlias(), customerId);
                         }
@@ -236,6 +242,7 @@ public class SpaceAndroidUtils {
         String subscriptionId = null;
         try {
             subscriptionId = BCUtils.subscribe("https://" + merchant.getDomain() + service.getSubscribeUrl(), alias, customerId);
+            ProviderResolver.invalidate();
         } catch (Exception e) {
             CommonAndroidUtils.showErrorDialog(activity, R.style.AlertDialogTheme, R.string.error_subscribing, e);
         }
@@ -403,6 +410,41 @@ public class SpaceAndroidUtils {
         return CommonAndroidUtils.getPreference(context, context.getString(R.string.preference_sort_key, alias), "2");
     }
 
+    public static void setMetaHeadPreference(Context context, String alias, @Nullable ByteString head) {
+        setHashPreference(context, context.getString(R.string.preference_main_meta_head, alias), head);
+    }
+
+    @Nullable
+    public static ByteString getMetaHeadPreference(Context context, String alias) {
+        return getHashPreference(context, context.getString(R.string.preference_main_meta_head, alias));
+    }
+
+    public static void setShareHeadPreference(Context context, String alias, @Nullable ByteString head) {
+        setHashPreference(context, context.getString(R.string.preference_main_share_head, alias), head);
+    }
+
+    @Nullable
+    public static ByteString getShareHeadPreference(Context context, String alias) {
+        return getHashPreference(context, context.getString(R.string.preference_main_share_head, alias));
+    }
+
+    private static void setHashPreference(Context context, String key, @Nullable ByteString hash) {
+        String value = "";
+        if (hash != null) {
+            value = new String(CommonUtils.encodeBase64URL(hash.toByteArray()));
+        }
+        CommonAndroidUtils.setPreference(context, key, value);
+    }
+
+    @Nullable
+    private static ByteString getHashPreference(Context context, String key) {
+        String value = CommonAndroidUtils.getPreference(context, key, "");
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return ByteString.copyFrom(CommonUtils.decodeBase64URL(value.getBytes()));
+    }
+
     @WorkerThread
     public static void setStatus(final Activity activity, final TextView progressStatus, final @StringRes int s) {
         setStatus(activity, progressStatus, activity.getString(s));